@@ -0,0 +1,145 @@
+package zedbit.mailx;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * <p>CrawlBench crawls a <code>SyntheticSite</code> end to end, in this JVM, and reports
+ * how fast it went: pages per second, the emails found against those planted, and how
+ * many bytes the crawl allocated per second and per page.</p>
+ *
+ * <p>Usage: ...CrawlBench [--pages N] [--fanout N] [--emails N] [--route-every N]
+ * [--routes N] [-- Mailx options], i.e. ...CrawlBench --pages 2000 -- -w 4 --fast</p>
+ *
+ * <p>Allocations are sampled per thread while the crawl runs, as the workers are gone when
+ * it ends; the few mS each worker lives after its last sample are not counted.</p>
+ *
+ * @author Manuel Mendez
+ */
+public class CrawlBench {
+
+    // How often thread allocations are sampled (mS)
+    static final int SAMPLE_EVERY = 20;
+
+    public static void main(String[] arguments) throws Exception {
+        int pages = 500, fanout = 5, emails = 2, routeEvery = 10, routes = 3;
+        List<String> options = new ArrayList<String>();
+        for (int a = 0; a < arguments.length; a++) {
+            if (arguments[a].equals("--")) {
+                for (a++; a < arguments.length; a++) { options.add(arguments[a]); }
+            } else if (a + 1 < arguments.length && arguments[a].equals("--pages")) { pages = Integer.parseInt(arguments[++a]); }
+            else if (a + 1 < arguments.length && arguments[a].equals("--fanout")) { fanout = Integer.parseInt(arguments[++a]); }
+            else if (a + 1 < arguments.length && arguments[a].equals("--emails")) { emails = Integer.parseInt(arguments[++a]); }
+            else if (a + 1 < arguments.length && arguments[a].equals("--route-every")) { routeEvery = Integer.parseInt(arguments[++a]); }
+            else if (a + 1 < arguments.length && arguments[a].equals("--routes")) { routes = Integer.parseInt(arguments[++a]); }
+            else {
+                System.err.println("Unknown argument: " + arguments[a]);
+                System.exit(1);
+            }
+        }
+
+        SyntheticSite site = new SyntheticSite(pages, fanout, emails, routeEvery, routes);
+        String uri = site.start(8);
+        Set<String> planted = site.planted();
+        System.out.println("Site: " + uri + ", " + pages + " pages, fanout " + fanout + ", " + emails
+            + " emails each, routes on every " + routeEvery + " pages, " + planted.size() + " emails planted");
+
+        options.add(0, uri);
+        Crawler crawler = new Crawler(Mailx.processArgs(options.toArray(new String[0])));
+        AllocationSampler sampler = new AllocationSampler();
+        Thread samplerThread = new Thread(sampler, "bench-sampler");
+        samplerThread.setDaemon(true);
+
+        // Nothing subscribes to the crawl, so that it goes as fast as it can
+        long start = System.nanoTime();
+        samplerThread.start();
+        crawler.run();
+        long elapsed = System.nanoTime() - start;
+        sampler.stop();
+        samplerThread.join();
+        site.stop();
+
+        int found = 0;
+        for (Results.Hit hit : crawler.results.sorted()) {
+            if (planted.contains(hit.email)) { found++; }
+        }
+        double seconds = elapsed / 1e9;
+        int crawled = crawler.linksCrawled();
+        long allocated = sampler.total();
+        System.out.println(String.format(Locale.ROOT, "Crawled %d links in %.2f s: %.1f pages/s", crawled, seconds, crawled / seconds));
+        System.out.println(String.format(Locale.ROOT, "Emails: %d found, %d of %d planted (%.1f%% recall), %d not planted",
+            crawler.results.size(), found, planted.size(), 100.0 * found / planted.size(), crawler.results.size() - found));
+        System.out.println(String.format(Locale.ROOT, "Allocated: %.1f MB, %.1f MB/s, %.1f KB/page",
+            allocated / 1e6, allocated / 1e6 / seconds, crawled > 0 ? allocated / 1e3 / crawled : 0.0));
+    } // end main
+
+
+    // Helper static nested classes //
+
+   /**
+    * <p>AllocationSampler keeps, for every thread it sees, the most bytes it was seen to
+    * have allocated. The threads of the benchmark itself, and of the site's server, are
+    * not the crawl's and are left out, as is what threads had allocated before.</p>
+    */
+    static class AllocationSampler implements Runnable {
+
+        private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final Map<Long, Long> allocated = new HashMap<Long, Long>();
+        private final Set<Long> ignored = new HashSet<Long>();
+        private final Map<Long, Long> before = new HashMap<Long, Long>();
+        private volatile boolean stopping;
+
+        AllocationSampler() {
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = threads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) { before.put(ids[i], Math.max(bytes[i], 0)); }
+        }
+
+        @Override
+        public void run() {
+            while (stopping == false) {
+                sample();
+                try { Thread.sleep(SAMPLE_EVERY); }
+                catch (InterruptedException e) { return; }
+            }
+            sample();
+        }
+
+        void stop() {
+            stopping = true;
+        }
+
+        private synchronized void sample() {
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = threads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] <= 0 || ignored.contains(ids[i])) { continue; }
+                if (allocated.containsKey(ids[i]) == false) {
+                    ThreadInfo info = threads.getThreadInfo(ids[i]);
+                    if (info == null) { continue; }
+                    if (info.getThreadName().startsWith("bench-") || info.getThreadName().startsWith("HTTP-Dispatcher")) {
+                        ignored.add(ids[i]);
+                        continue;
+                    }
+                }
+                allocated.merge(ids[i], bytes[i], Math::max);
+            }
+        }
+
+        synchronized long total() {
+            long total = 0;
+            for (Map.Entry<Long, Long> e : allocated.entrySet()) { total += e.getValue() - before.getOrDefault(e.getKey(), 0L); }
+            return total;
+        }
+
+    } // end class AllocationSampler
+
+} // end class CrawlBench
@@ -0,0 +1,256 @@
+package zedbit.mailx;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.StringWebResponse;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+
+/**
+ * <p>MicroBench times the hot paths of a crawl over a corpus of html pages: making links
+ * canonical, <code>filterByType()</code>, <code>getStaticLinks()</code>, the DOM walk of
+ * <code>readPage()</code>, <code>EmailScanner</code>, the fast path's streaming scan, page
+ * fingerprints and the <code>UrlIndex</code>.</p>
+ *
+ * <p>Usage: ...MicroBench [corpus dir] [benchmark name filter]. The corpus is every .html
+ * file in the directory given, recorded from a site of interest, or else 200 pages of a
+ * <code>SyntheticSite</code>.</p>
+ *
+ * <p>Each benchmark is run as JMH would, in miniature: a few warmup iterations, then timed
+ * iterations of a fixed length, each calling it as many times as fits. The time and the
+ * bytes allocated per call are reported, with their spread across iterations. Results are
+ * folded into a sink, so the JIT cannot drop the work.</p>
+ *
+ * @author Manuel Mendez
+ */
+public class MicroBench {
+
+    // Iterations, and how long each lasts (mS)
+    static final int WARMUP = 5;
+    static final int MEASURE = 10;
+    static final int ITERATION = 300;
+
+    // Where the corpus pages are said to be
+    static final String SITE = "http://localhost:8765/";
+
+   /**
+    * Bench is one call of the code timed. What it returns goes to the sink
+    */
+    interface Bench {
+        long call() throws Exception;
+    }
+
+    static long sink; // Everything benchmarks return, folded
+    static String filter; // Only benchmarks whose name holds this, if not null
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+
+    public static void main(String[] arguments) throws Exception {
+        List<String> corpus = (arguments.length > 0 && arguments[0].equals("-") == false) ? read(Paths.get(arguments[0])) : synthetic();
+        filter = (arguments.length > 1) ? arguments[1] : null;
+        System.out.println("Corpus: " + corpus.size() + " pages, " + corpus.stream().mapToInt(String::length).sum() / 1024 + " KB");
+
+        // The site links are kept under, as a crawl of it would have it
+        Logger.getLogger("com.gargoylesoftware").setLevel(Level.OFF);
+        Site site = Site.of(SITE, null, new CrawlConfig(), 0);
+
+        // What the benchmarks work on, taken from the corpus once
+        List<String> hrefs = new ArrayList<String>(); // As found in anchors and links
+        Set<String> links = new HashSet<String>();
+        Pattern hrefP = Pattern.compile("<(?:a|link)\\s[^>]*href=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+        for (String html : corpus) {
+            Matcher m = hrefP.matcher(html);
+            while (m.find()) { hrefs.add(m.group(1)); }
+        }
+        String base = SITE + "corpus/0.html";
+        for (String href : hrefs) {
+            String link = UrlCanon.resolve(base, href);
+            if (site.contains(link)) { links.add(link); }
+        }
+        List<byte[]> bodies = new ArrayList<byte[]>();
+        for (String html : corpus) { bodies.add(html.getBytes(StandardCharsets.UTF_8)); }
+        List<HtmlPage> pages = parse(corpus);
+        List<String> texts = new ArrayList<String>();
+        for (HtmlPage page : pages) { texts.add(page.asText()); }
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < 100000; i++) { urls.add(SITE + "page/" + i + ".html?s=" + (i * 7919)); }
+        UrlIndex full = new UrlIndex(Crawler.INDEX_CAPACITY, false, 0);
+        for (String url : urls) { full.advance(url, UrlIndex.SCHEDULED); }
+
+        System.out.println(String.format(Locale.ROOT, "%-32s %14s %12s %14s", "Benchmark", "ns/op", "+-", "bytes/op"));
+
+        // Links, as getStaticLinks() makes each href canonical
+        run("UrlCanon.resolve", hrefs.size(), () -> {
+            long n = 0;
+            for (String href : hrefs) {
+                String link = UrlCanon.resolve(base, href);
+                if (link != null) { n += link.length(); }
+            }
+            return n;
+        });
+        run("regex skipP", links.size(), () -> {
+            long n = 0;
+            for (String l : links) { if (Crawler.skipP.matcher(l).matches()) { n++; } }
+            return n;
+        });
+        run("filterByType", links.size(), () -> Crawler.filterByType(links).size());
+        run("LinkScore.score", links.size(), () -> {
+            long n = 0;
+            for (String l : links) { n += LinkScore.score(l, "Contact our team", 2, 1); }
+            return n;
+        });
+
+        // Over the DOM
+        run("getStaticLinks", pages.size(), () -> {
+            long n = 0;
+            for (HtmlPage page : pages) {
+                n += Crawler.getStaticLinks(site, page, SITE, Crawler.LinkType.ANCHOR).size();
+                n += Crawler.getStaticLinks(site, page, SITE, Crawler.LinkType.HREF).size();
+            }
+            return n;
+        });
+        run("readPage", pages.size(), () -> {
+            long n = 0;
+            for (HtmlPage page : pages) { n += Crawler.readPage(page, null).size(); }
+            return n;
+        });
+        run("readPage+fingerprint", pages.size(), () -> {
+            long n = 0;
+            for (HtmlPage page : pages) {
+                PageDedup.Fingerprint print = new PageDedup.Fingerprint();
+                n += Crawler.readPage(page, print).size() + print.simHash();
+            }
+            return n;
+        });
+
+        // Over text and bytes
+        run("EmailScanner.scan", texts.size(), () -> {
+            long n = 0;
+            for (String text : texts) { n += EmailScanner.scan(text, (t, start, end) -> { }); }
+            return n;
+        });
+        run("HttpFastPath.scan", bodies.size(), () -> {
+            long n = 0;
+            for (byte[] body : bodies) {
+                n += HttpFastPath.scan(new ByteArrayInputStream(body), "text/html", StandardCharsets.UTF_8).hrefs.size();
+            }
+            return n;
+        });
+        TextScanner textScanner = new TextScanner();
+        run("TextScanner.scan json", bodies.size(), () -> {
+            long n = 0;
+            for (byte[] body : bodies) {
+                n += textScanner.scan(new ByteArrayInputStream(body), StandardCharsets.UTF_8, TextScanner.Kind.JSON, (email) -> { });
+            }
+            return n;
+        });
+
+        // The url tracker's index
+        run("UrlIndex.state", urls.size(), () -> {
+            long n = 0;
+            for (String url : urls) { n += full.state(url); }
+            return n;
+        });
+        run("UrlIndex.advance (new)", urls.size(), () -> {
+            UrlIndex index = new UrlIndex(Crawler.INDEX_CAPACITY, false, 0);
+            long n = 0;
+            for (String url : urls) { if (index.advance(url, UrlIndex.SCHEDULED)) { n++; } }
+            return n;
+        });
+
+        System.out.println("(sink " + sink + ")");
+    } // end main
+
+   /**
+    * Run <code>bench</code>, which does <code>ops</code> operations per call, and print
+    * its time and allocations per operation
+    */
+    static void run(String name, int ops, Bench bench) throws Exception {
+        if (filter != null && name.contains(filter) == false) { return; }
+        if (ops == 0) { ops = 1; }
+        long thread = Thread.currentThread().getId();
+
+        double[] nanos = new double[MEASURE];
+        double bytes = 0;
+        for (int i = -WARMUP; i < MEASURE; i++) {
+            long calls = 0;
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long end = start + ITERATION * 1000000L;
+            long now;
+            do {
+                sink += bench.call();
+                calls++;
+            } while ((now = System.nanoTime()) < end);
+            if (i >= 0) {
+                nanos[i] = (double) (now - start) / (calls * ops);
+                bytes += (double) (threads.getThreadAllocatedBytes(thread) - allocated) / (calls * ops);
+            }
+        }
+
+        double mean = 0;
+        for (double n : nanos) { mean += n / MEASURE; }
+        double spread = 0;
+        for (double n : nanos) { spread += (n - mean) * (n - mean) / MEASURE; }
+        System.out.println(String.format(Locale.ROOT, "%-32s %14.1f %12.1f %14.1f", name, mean, Math.sqrt(spread), bytes / MEASURE));
+    } // end run
+
+   /**
+    * Every .html file in <code>dir</code>
+    */
+    private static List<String> read(Path dir) throws Exception {
+        List<String> corpus = new ArrayList<String>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.html")) {
+            for (Path file : files) { corpus.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)); }
+        }
+        return corpus;
+    }
+
+   /**
+    * Pages of a synthetic site, the static ones with a few of their routes
+    */
+    private static List<String> synthetic() {
+        SyntheticSite site = new SyntheticSite(200, 8, 4, 10, 3);
+        List<String> corpus = new ArrayList<String>();
+        for (int n = 0; n < site.pages; n++) { corpus.add(site.page(n)); }
+        for (int n = 0; n < site.pages; n += site.routeEvery) { corpus.add(site.route(n, 0)); }
+        return corpus;
+    }
+
+   /**
+    * The corpus as HtmlUnit pages, without running their scripts
+    */
+    private static List<HtmlPage> parse(List<String> corpus) throws Exception {
+        WebClient webClient = new WebClient(BrowserVersion.FIREFOX_38);
+        webClient.getOptions().setJavaScriptEnabled(false);
+        webClient.getOptions().setCssEnabled(false);
+        List<HtmlPage> pages = new ArrayList<HtmlPage>();
+        int i = 0;
+        for (String html : corpus) {
+            URL url = new URL(SITE + "corpus/" + (i++) + ".html");
+            pages.add((HtmlPage) webClient.loadWebResponseInto(new StringWebResponse(html, url), webClient.getCurrentWindow()));
+        }
+        return pages;
+    }
+
+} // end class MicroBench
@@ -0,0 +1,61 @@
+package zedbit.mailx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * <p>ScanCheck runs <code>EmailScanner</code> over the edge cases pages throw at it, and
+ * tells which emails found differ from those expected: addresses in punctuation, at the end
+ * of a sentence, run into the words after them, local parts over the RFC 5321 limit, and
+ * file names that look like emails.</p>
+ *
+ * <p>Usage: ...ScanCheck. It exits with 1 if any case fails, so that it can gate a build.</p>
+ *
+ * @author Manuel Mendez
+ */
+public class ScanCheck {
+
+    // A local part of exactly MAX_LOCAL chars
+    static final String LOCAL_64 = "a234567890123456789012345678901234567890123456789012345678901234";
+
+    // Each case: the text scanned, then the emails expected in it, in order
+    static final String[][] CASES = {
+        { "write to john@example.com today", "john@example.com" },
+        { "<a>John.Doe@Example.COM</a>", "John.Doe@Example.COM" },
+        { "\"quoted\" <jane@example.org>, or 'bob@example.net'", "jane@example.org", "bob@example.net" },
+        { "Mail us at info@example.com.", "info@example.com" },
+        { "a@b.com,c@d.org;e@f.net", "a@b.com", "c@d.org", "e@f.net" },
+        { "\"john doe\"@example.com", "\"john doe\"@example.com" },
+        { "first.last+tag@sub.example.co.uk", "first.last+tag@sub.example.co.uk" },
+        { "sales@my-site.example.com", "sales@my-site.example.com" },
+        { "logo@2x.png and icon@3x.svg", },
+        { "user@localhost", },
+        { "..dots@example.com", "dots@example.com" },
+        { "no.@example.com", },
+        // A hyphen after the domain is not part of it
+        { "foo@bar.com- trailing hyphen", "foo@bar.com" },
+        { "sales@acme.com-or-call", "sales@acme.com" },
+        // A local part may be MAX_LOCAL chars, and no more
+        { LOCAL_64 + "@example.com", LOCAL_64 + "@example.com" },
+        { "x" + LOCAL_64 + "@example.com", },
+    };
+
+
+    public static void main(String[] arguments) {
+        int failed = 0;
+        for (String[] c : CASES) {
+            List<String> found = new ArrayList<String>();
+            EmailScanner.scan(c[0], (text, start, end) -> found.add(text.subSequence(start, end).toString()));
+            List<String> expected = new ArrayList<String>();
+            for (int e = 1; e < c.length; e++) { expected.add(c[e]); }
+            if (found.equals(expected) == false) {
+                failed++;
+                System.out.println("FAIL " + c[0] + "\n" + Crawler.MARGIN + "expected " + expected + ", found " + found);
+            }
+        }
+        System.out.println((CASES.length - failed) + " of " + CASES.length + " cases passed");
+        if (failed > 0) { System.exit(1); }
+    } // end main
+
+} // end class ScanCheck
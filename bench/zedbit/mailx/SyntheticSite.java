@@ -0,0 +1,206 @@
+package zedbit.mailx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * <p>SyntheticSite serves a made up website from within the JVM, for benchmarks to crawl
+ * without a network. Its shape is set at construction: how many pages, how many links each
+ * has, how many emails are planted in each, and on how many pages Angular style ng-click
+ * "changeRoute" elements lead to route pages.</p>
+ *
+ * <p>Pages are generated on request from their number, so the site takes no memory, and
+ * the same numbers always give the same site. Emails are planted the ways pages show them:
+ * in text, in comments, in mailto: anchors and written with character references. All
+ * emails planted are known beforehand, so a crawl's recall can be told.</p>
+ *
+ * <p>Route pages are reached through onclick handlers on the ng-click elements, as no
+ * Angular is at hand offline; for the crawler they are clicked and followed the same.</p>
+ *
+ * @author Manuel Mendez
+ */
+class SyntheticSite implements HttpHandler {
+
+    // Filler words for the text of pages
+    static final String[] WORDS = {
+        "widgets", "company", "history", "mission", "people", "offices", "products", "customers",
+        "service", "quality", "support", "partners", "research", "design", "delivery", "since" };
+
+    final int pages; // Static pages, numbered from 0
+    final int fanout; // Links to other pages in each page
+    final int emails; // Emails planted in each page
+    final int routeEvery; // Every how many pages has route elements, 0 for none
+    final int routes; // Route elements in those pages
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+
+   /**
+    * Build a site of <code>pages</code> pages, each linking to <code>fanout</code> others and
+    * holding <code>emails</code> emails. Every <code>routeEvery</code> pages, unless 0, a page
+    * has <code>routes</code> clickable routes, each to a page holding one more email.
+    */
+    SyntheticSite(int pages, int fanout, int emails, int routeEvery, int routes) {
+        this.pages = pages;
+        this.fanout = fanout;
+        this.emails = emails;
+        this.routeEvery = routeEvery;
+        this.routes = routes;
+    }
+
+   /**
+    * Start serving on a free port of localhost, with <code>threads</code> threads.
+    * Returns the site's uri, i.e. http://localhost:PORT/
+    */
+    String start(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this);
+        executor = Executors.newFixedThreadPool(threads, (r) -> new Thread(r, "bench-site"));
+        server.setExecutor(executor);
+        server.start();
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+   /**
+    * Stop serving
+    */
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String html = render(path);
+        byte[] body = (html != null) ? html.getBytes(StandardCharsets.UTF_8) : "Not found".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders((html != null) ? 200 : 404, body.length);
+        try (OutputStream out = exchange.getResponseBody()) { out.write(body); }
+    }
+
+   /**
+    * The html at <code>path</code>, or null if there is no such page
+    */
+    String render(String path) {
+        try {
+            if (path.equals("/")) { return page(0); }
+            if (path.startsWith("/page/") && path.endsWith(".html")) {
+                int n = Integer.parseInt(path.substring(6, path.length() - 5));
+                return (n >= 0 && n < pages) ? page(n) : null;
+            }
+            if (path.startsWith("/route/")) {
+                String[] parts = path.substring(7).split("/");
+                int n = Integer.parseInt(parts[0]);
+                int r = Integer.parseInt(parts[1]);
+                return (hasRoutes(n) && r >= 0 && r < routes) ? route(n, r) : null;
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // Not one of ours
+        }
+        return null;
+    } // end render
+
+   /**
+    * Static page <code>n</code>
+    */
+    String page(int n) {
+        StringBuilder html = new StringBuilder(4096);
+        html.append("<html><head><title>Page ").append(n).append("</title></head><body>\n");
+        html.append("<h1>Page ").append(n).append("</h1>\n");
+        filler(html, n, 3);
+
+        // The emails, each planted in one of the ways pages show them
+        for (int k = 0; k < emails; k++) {
+            String email = email(n, k);
+            switch (k % 4) {
+                case 0: html.append("<p>Write to ").append(email).append(" for details.</p>\n"); break;
+                case 1: html.append("<a href=\"mailto:").append(email).append("?subject=Hello\">Mail us</a>\n"); break;
+                case 2: html.append("<!-- owner: ").append(email).append(" -->\n"); break;
+                default: html.append("<p>").append(email.replace("@", "&#64;")).append("</p>\n"); break;
+            }
+        }
+
+        // The links, the next page first so that all pages are reachable
+        for (int k = 0; k < fanout; k++) {
+            int to = (k == 0) ? (n + 1) % pages : (int) ((n * 31L + k * 17L) % pages);
+            html.append("<a href=\"/page/").append(to).append(".html\">Page ").append(to).append("</a>\n");
+        }
+        if (hasRoutes(n)) {
+            for (int r = 0; r < routes; r++) {
+                html.append("<span ng-click=\"changeRoute('/route/").append(n).append('/').append(r)
+                    .append("')\" onclick=\"location.href='/route/").append(n).append('/').append(r)
+                    .append("'\">Route ").append(r).append("</span>\n");
+            }
+        }
+        html.append("</body></html>\n");
+        return html.toString();
+    } // end page
+
+   /**
+    * Route page <code>r</code> of page <code>n</code>
+    */
+    String route(int n, int r) {
+        StringBuilder html = new StringBuilder(2048);
+        html.append("<html><head><title>Route ").append(n).append('/').append(r).append("</title></head><body>\n");
+        filler(html, n * 7 + r, 2);
+        html.append("<p>Contact ").append(routeEmail(n, r)).append("</p>\n");
+        html.append("<a href=\"/page/").append(n).append(".html\">Back</a>\n");
+        html.append("</body></html>\n");
+        return html.toString();
+    }
+
+   /**
+    * All emails planted in the site
+    */
+    Set<String> planted() {
+        Set<String> all = new LinkedHashSet<String>();
+        for (int n = 0; n < pages; n++) {
+            for (int k = 0; k < emails; k++) { all.add(email(n, k)); }
+            if (hasRoutes(n)) {
+                for (int r = 0; r < routes; r++) { all.add(routeEmail(n, r)); }
+            }
+        }
+        return all;
+    }
+
+    private boolean hasRoutes(int n) {
+        return routeEvery > 0 && n % routeEvery == 0;
+    }
+
+    private static String email(int n, int k) {
+        return "user" + n + "." + k + "@dept" + (n % 7) + ".example.com";
+    }
+
+    private static String routeEmail(int n, int r) {
+        return "route" + n + "." + r + "@example.org";
+    }
+
+   /**
+    * Paragraphs of filler text, different for each <code>seed</code>
+    */
+    private static void filler(StringBuilder html, int seed, int paragraphs) {
+        long x = seed * 0x9E3779B97F4A7C15L + 1;
+        for (int p = 0; p < paragraphs; p++) {
+            html.append("<p>");
+            for (int w = 0; w < 40; w++) {
+                x ^= x << 13; x ^= x >>> 7; x ^= x << 17;
+                html.append(WORDS[(int) (x >>> 60)]).append(' ');
+            }
+            html.append("</p>\n");
+        }
+    }
+
+} // end class SyntheticSite
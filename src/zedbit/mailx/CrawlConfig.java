@@ -0,0 +1,95 @@
+package zedbit.mailx;
+
+import java.util.concurrent.Flow;
+
+
+/**
+ * <p>CrawlConfig holds what a <code>Crawler</code> is to crawl, and how: every option the
+ * command line of Mailx has, as a field set to its default. Fields are set directly,
+ * before the config is handed to a Crawler, and are not to be changed afterwards.</p>
+ *
+ * <p>Exactly one of <code>seed</code>, <code>seeds</code> and <code>batchFile</code> says
+ * where to crawl from: a single site, or a batch of them.</p>
+ *
+ * @author Manuel Mendez
+ */
+public class CrawlConfig {
+
+    // How often is the crawl log forced to disk? (seconds)
+    public static final int CHECKPOINT_EVERY = 10;
+
+    // How many sites a batch crawls at once, and how full the heap may be to start one more (%)
+    public static final int SITES = 16;
+    public static final int MAX_HEAP = 80;
+
+    // How many pages a browser loads before it is recycled; how many links a frontier holds in memory
+    public static final int RECYCLE_AFTER = 500;
+    public static final int FRONTIER_MEMORY = 100000;
+
+    // How many times a page that failed to load is tried again
+    public static final int RETRIES = 3;
+
+    // How long, at most, to wait for the background JavaScript of a page to settle? (mS)
+    public static final int JS_WAIT = 2000;
+
+    // Where to crawl from
+    public String seed; // The uri, or page, a single site is crawled from
+    public Iterable<String> seeds; // The seeds of a batch crawl, one uri per site
+    public String batchFile; // Or where to read them from, one per line, - for stdin (--batch)
+
+    // What the crawl publishes
+    public int eventBuffer = Flow.defaultBufferSize(); // Events held for a slow subscriber before the crawl waits for it
+
+    // How it is crawled
+    public int workers; // How many crawling threads per site? 0 for one per core, or one in a batch (-w)
+    public long jsWait = JS_WAIT; // Longest JavaScript wait per page (--js-wait, mS)
+    public long jsBudget; // Longest JavaScript wait for the whole crawl, 0 for none (--js-budget, seconds)
+    public boolean fast; // Try the plain HTTP fast path first? (--fast)
+    public boolean clickRoutes; // Click every route and go back, rather than load them from their url (--click-routes)
+    public boolean noText; // Search only html, not text, JSON, XML nor scripts (--no-text)
+    public boolean noRobots; // Crawl pages robots.txt disallows (--no-robots)
+    public boolean noSitemaps; // Do not queue the pages sitemaps list before crawling (--no-sitemaps)
+
+    // Where the emails found are written, if anywhere
+    public String outFile; // (-o)
+    public String outFormat; // As what? jsonl or csv, jsonl unless the file ends in .csv (--format)
+
+    // Logging the crawl, to resume it, and keeping its responses
+    public String checkpointDir; // Where to log the crawl, to resume it if killed (--checkpoint)
+    public String resumeDir; // Where the log of a crawl to resume is (--resume)
+    public int checkpointEvery = CHECKPOINT_EVERY; // Seconds between checkpoints of the log (--checkpoint-every)
+    public String cacheDir; // Where to keep responses, to re-crawl incrementally (--cache)
+
+    // What is skipped
+    public boolean noDedup; // Traverse pages even if their content was seen under another url? (--no-dedup)
+    public int dedupDistance = PageDedup.DISTANCE; // Most bits near duplicate pages differ in (--dedup-distance)
+    public boolean noTemplates; // Crawl every url, however many of its template yielded nothing? (--no-templates)
+    public int templateSample = UrlTemplates.SAMPLE; // Pages of a template in a row without a new email that close it (--template-sample)
+    public int templateMax; // Most pages crawled of a template, 0 for no limit (--template-max)
+    public boolean noFilter; // Let browsers fetch every resource of a page? (--no-filter)
+    public int scriptCache = ResourceFilter.SCRIPT_CACHE; // Memory for scripts and stylesheets shared by workers (--script-cache, MB)
+
+    // The load on hosts
+    public boolean noPoliteness; // Send requests as fast as workers ask? (--no-politeness)
+    public int perHost; // Most requests in flight to a host, 0 for one per worker (--per-host)
+    public int rate; // Most requests per second to a host, 0 for no limit (--rate)
+    public int retries = RETRIES; // Times a page that failed to load is tried again (--retries)
+
+    // The budget of the crawl
+    public int maxPages; // Most links a worker takes from the frontier of a site, 0 for no limit (--max-pages)
+    public int maxTime; // Seconds after which no more links are taken, nor sites started, 0 for no limit (--max-time)
+
+    // Memory
+    public int sitesAtOnce = SITES; // Sites crawled at once in a batch (--sites)
+    public int browsersMax; // Browsers open at once over all sites, 0 for no limit (--browsers)
+    public int maxHeap = MAX_HEAP; // Heap used, in percent, over which no new site is started and browsers are recycled (--max-heap)
+    public int recycleAfter = RECYCLE_AFTER; // Pages a browser loads before it is closed and opened anew (--recycle-after)
+    public int frontierMemory = FRONTIER_MEMORY; // Links a frontier holds in memory before spilling to disk, 0 for no limit (--frontier-memory)
+    public boolean offHeap; // Keep the url index off the heap? (--offheap)
+    public long bloomExpected; // Urls expected, to size a Bloom filter in front of the url index (--bloom)
+
+    // Timings
+    public String metricsFile; // Where to write the timings of each phase of the crawl, as JSON (--metrics)
+    public int metricsEvery; // Seconds between writing them while crawling, 0 for only at the end (--metrics-every)
+
+} // end class CrawlConfig
@@ -0,0 +1,43 @@
+package zedbit.mailx;
+
+
+/**
+ * <p>CrawlEvent is what a <code>Crawler</code> publishes as it crawls: an email found for
+ * the first time in a site, a page visited, a page that could not be, and a site whose
+ * crawl is over. Each is stamped with the time it happened, so that the latency of every
+ * email can be told.</p>
+ *
+ * @author Manuel Mendez
+ */
+public final class CrawlEvent {
+
+    public enum Kind {
+        EMAIL, // A distinct email of the site, found at url
+        PAGE, // The page at url was visited
+        ERROR, // The page at url could not be crawled, message says why
+        SITE // The crawl of the site is over, message sums it up
+    }
+
+    public final Kind kind;
+    public final String site; // The uri of the site
+    public final String url; // The page, or the start page of the site
+    public final String email; // Null unless an EMAIL
+    public final String message; // Null unless an ERROR or a SITE
+    public final long at; // When, in mS since the epoch
+
+
+    CrawlEvent(Kind kind, String site, String url, String email, String message) {
+        this.kind = kind;
+        this.site = site;
+        this.url = url;
+        this.email = email;
+        this.message = message;
+        this.at = System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + ((email != null) ? email + " at " : "") + url + ((message != null) ? ": " + message : "");
+    }
+
+} // end class CrawlEvent
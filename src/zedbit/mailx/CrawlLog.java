@@ -0,0 +1,172 @@
+package zedbit.mailx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>CrawlLog is an append-only log of what a crawl did: the urls it queued, visited,
+ * errored out on and finished, and the emails it found. Should Mailx be killed, the log
+ * lets a later run with <code>--resume</code> rebuild the url tracker and the frontier,
+ * and carry on where the crawl stopped.</p>
+ *
+ * <p>The log file is memory-mapped, a chunk at a time, so appending a record is a copy into
+ * memory. Every few seconds a checkpoint forces the mapped pages to disk, then records in the
+ * file header how far the log is durable. Replay stops there, so a record torn by a crash is
+ * never read.</p>
+ *
+ * <p>Records are a type byte, a two byte length, and that many bytes of UTF-8 text.</p>
+ *
+ * @author Manuel Mendez
+ */
+class CrawlLog {
+
+    // Record types
+    static final byte START = 'S'; // The page the crawl started at
+    static final byte PENDING = 'P'; // An url queued in the frontier
+    static final byte VISITED = 'V'; // An url whose crawl started
+    static final byte DONE = 'D'; // An url whose crawl finished, its links are all queued
+    static final byte ERRORED = 'E'; // An url we errored out on
+    static final byte EMAIL = 'M'; // An email, a tab, and the page it was found at
+    static final byte SKIP = (byte) 0xFF; // Nothing more in this chunk, go on to the next
+
+    // The header: magic, then how many bytes of the file are durable
+    static final int MAGIC = 0x4D4C5831; // "MLX1"
+    static final int HEADER = 16;
+
+    // The file is mapped and grown this much at a time (bytes)
+    static final int CHUNK = 16 * 1024 * 1024;
+
+    // Longest text in a record (bytes)
+    static final int MAX_TEXT = 0xFFFF;
+
+    static final String FILE_NAME = "crawl.log";
+
+   /**
+    * Replay is told of each durable record of a log being opened
+    */
+    interface Replay {
+        void record(byte type, String text);
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final ScheduledExecutorService checkpointer;
+    private MappedByteBuffer chunk; // The chunk we append to
+    private long chunkBase; // Where it starts in the file
+    private long position; // Where the next record goes in the file
+
+
+   /**
+    * Open the log in directory <code>dir</code>, creating it if needed. Unless
+    * <code>replay</code> is null, the durable records of an existing log are replayed to
+    * it and appending continues after them; otherwise the log starts empty. A checkpoint is
+    * taken every <code>checkpointSeconds</code>.
+    */
+    CrawlLog(Path dir, int checkpointSeconds, Replay replay) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(FILE_NAME);
+        if (replay == null) { Files.deleteIfExists(file); }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+
+        position = HEADER;
+        if (header.getInt(0) == MAGIC) {
+            long committed = header.getLong(4);
+            if (replay != null) { replay(committed, replay); }
+            position = committed;
+        } else {
+            header.putInt(0, MAGIC);
+            header.putLong(4, position);
+            header.force();
+        }
+        chunkBase = (position / CHUNK) * CHUNK;
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkBase, CHUNK);
+
+        checkpointer = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "mailx-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpoint, checkpointSeconds, checkpointSeconds, TimeUnit.SECONDS);
+    }
+
+   /**
+    * Append a record of <code>type</code>, holding <code>text</code>
+    */
+    synchronized void append(byte type, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_TEXT);
+        try {
+            // Records do not straddle chunks, go on to the next one if this is full
+            if (position + 3 + length > chunkBase + CHUNK) {
+                if (position < chunkBase + CHUNK) { chunk.put((int) (position - chunkBase), SKIP); }
+                chunk.force();
+                chunkBase += CHUNK;
+                position = chunkBase;
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkBase, CHUNK);
+            }
+            int offset = (int) (position - chunkBase);
+            chunk.put(offset, type);
+            chunk.putShort(offset + 1, (short) length);
+            for (int i = 0; i < length; i++) { chunk.put(offset + 3 + i, bytes[i]); }
+            position += 3 + length;
+        } catch (IOException e) {
+            System.err.println("Could not grow the crawl log! " + e.toString());
+        }
+    } // end append
+
+   /**
+    * Force what was appended to disk, then mark it as durable in the header
+    */
+    synchronized void checkpoint() {
+        chunk.force();
+        header.putLong(4, position);
+        header.force();
+    }
+
+   /**
+    * Take a last checkpoint and close the log
+    */
+    void close() {
+        checkpointer.shutdownNow();
+        checkpoint();
+        try { channel.close(); }
+        catch (IOException e) { System.err.println("Could not close the crawl log! " + e.toString()); }
+    }
+
+   /**
+    * Read the records up to <code>committed</code>, a chunk at a time
+    */
+    private void replay(long committed, Replay replay) throws IOException {
+        long base = 0;
+        long at = HEADER;
+        while (at < committed) {
+            long size = Math.min(CHUNK, channel.size() - base);
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, base, size);
+            long end = Math.min(base + size, committed);
+            byte[] bytes = new byte[MAX_TEXT];
+            while (at < end) {
+                int offset = (int) (at - base);
+                byte type = in.get(offset);
+                if (type == SKIP || type == 0) { break; }
+                int length = in.getShort(offset + 1) & 0xFFFF;
+                for (int i = 0; i < length; i++) { bytes[i] = in.get(offset + 3 + i); }
+                replay.record(type, new String(bytes, 0, length, StandardCharsets.UTF_8));
+                at += 3 + length;
+            }
+            base += CHUNK;
+            at = Math.max(at, base);
+        }
+    } // end replay
+
+} // end class CrawlLog
@@ -0,0 +1,1584 @@
+package zedbit.mailx;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.NicelyResynchronizingAjaxController;
+import com.gargoylesoftware.htmlunit.SilentCssErrorHandler;
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebWindow;
+import com.gargoylesoftware.htmlunit.TopLevelWindow;
+import com.gargoylesoftware.htmlunit.History;
+
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.DomCharacterData;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.HtmlScript;
+import com.gargoylesoftware.htmlunit.html.HtmlStyle;
+
+
+/**
+ * <p>Crawler crawls a website, or a batch of them, looking for strings that might be email
+ * candidates, as a <code>CrawlConfig</code> says. It crawls only resources sharing the uri
+ * of each site, and is capable of "clicking" on dynamic routes (using ng-click). The
+ * HtmlUnit headless browser is driven to explore both static and dynamic pages.</p>
+ *
+ * <p>The crawl is done by a pool of workers, each with its own headless browser, that take
+ * static links from a shared <code>Frontier</code> queue until no links remain.</p>
+ *
+ * <p>What it finds is published as it happens, as <code>CrawlEvent</code>s: each distinct
+ * email of a site, each page visited or errored out on, and each site once crawled. Every
+ * subscriber is handed events as it requests them, and the workers wait for the slowest one
+ * whose buffer of <code>eventBuffer</code> events is full, so that a slow subscriber slows
+ * the crawl down rather than have events pile up in memory. Once the crawl is over the
+ * subscribers complete, or are handed the error it failed with.</p>
+ *
+ * <p>A Crawler runs once. Many can run in one JVM, each with its own config and its own
+ * <code>Metrics</code>, though the verbose and trace output is shared by all.</p>
+ *
+ * @author Manuel Mendez
+ */
+public class Crawler implements Flow.Publisher<CrawlEvent> {
+
+    // Member variables
+    final CrawlConfig config; // What to crawl, and how
+    private final SubmissionPublisher<CrawlEvent> events; // Where what is found is published
+    private final ExecutorService delivery; // Delivers the events to subscribers
+    private final AtomicBoolean started = new AtomicBoolean(); // Has run() been called?
+    private final Metrics metrics = new Metrics(this); // The timings of the phases of this crawl
+    private volatile boolean stopped; // Has stop() been called?
+    private final Set<Site> running = ConcurrentHashMap.newKeySet(); // Sites being crawled
+    private Site single; // The site of a single site crawl, null in a batch
+    private PageDedup dedup; // The pages found duplicate, of the single site or tallied over a batch, null if off
+    private UrlTemplates templates; // The url templates, of the single site or tallied over a batch, null if off
+    private final AtomicInteger sitesCrawled = new AtomicInteger(); // Sites of a batch started
+    private final int workers; // Crawling threads per site, as configured or as many as fit
+    private long deadline; // When maxTime is up, in nanoTime, 0 if never
+    private Semaphore browsers; // Permits to open a browser, null if no limit
+    static volatile boolean verbose; // Are we running in verbose mode? Shared by all crawlers
+    static volatile boolean trace; // Are we running in trace mode? Useful for debugging
+    private final AtomicInteger linksCrawled = new AtomicInteger(); // How many links did we crawl, over all sites?
+    private final AtomicInteger emailsFound = new AtomicInteger(); // Distinct emails of each site, over all sites
+    private final AtomicInteger recycled = new AtomicInteger(); // Browsers closed and opened anew
+    private final AtomicInteger spilled = new AtomicInteger(); // Links spilled to disk by frontiers
+    private HttpFastPath fastPath; // Plain HTTP fetching for pages without dynamic hooks, null if off
+    private final AtomicInteger fastCrawled = new AtomicInteger(); // Pages done by the fast path
+    private final AtomicInteger fastPromoted = new AtomicInteger(); // Pages the fast path handed to HtmlUnit
+    private JsSettler settler; // Waits for each page's JavaScript to settle
+    Results results; // The distinct emails found, or in a batch where those of each site are written
+    private HttpCache cache; // The responses of previous crawls, null if none
+    private ResourceFilter filter; // Blocks resources we do not need, null if off
+    private Politeness politeness; // Keeps each host from being sent more than it can take, null if off
+    private final AtomicInteger retried = new AtomicInteger(); // Pages queued again after failing
+    private final AtomicInteger routesQueued = new AtomicInteger(); // Routes handed to the frontier by their url
+    private final AtomicInteger routesClicked = new AtomicInteger(); // Routes clicked, having no url to load
+    private final AtomicInteger routesRepeated = new AtomicInteger(); // Routes not taken again
+    private TextScanner textScanner; // Searches responses that are not html, null if off
+    private Sitemaps sitemaps; // Reads robots.txt and sitemaps, null if neither is wanted
+    private final AtomicInteger disallowed = new AtomicInteger(); // Links not queued as robots.txt disallows them
+
+    // The route an Angular ng-click leads to, when given literally, i.e. changeRoute('/about')
+    static final Pattern routeP = Pattern.compile("changeRoute\\(\\s*(?:'([^']*)'|\"([^\"]*)\")\\s*\\)");
+
+    // Files we will not scan
+    static final Pattern skipP = Pattern.compile(".*(\\.(ico|jpg|jpeg|png|php|php\\?rsd|css|pdf|doc|docx)|(/feed/)|(\\.css\\?.*))$", Pattern.CASE_INSENSITIVE);
+
+    // Thread.ofVirtual(), null if this JVM has no virtual threads
+    static final Method virtualThreads = virtualThreads();
+
+    // At least how many pages a browser loads before the heap being full recycles it
+    static final int RECYCLE_MIN = 20;
+
+    // How many urls the url index holds before it first grows
+    static final int INDEX_CAPACITY = 1 << 14;
+
+    // Some constants for some pretty-printing 
+    static final String MARGIN = "        ";
+
+
+   /**
+    * Build a crawler for <code>config</code>, which is not to be changed afterwards.
+    * Nothing is crawled until <code>run()</code> is called.
+    */
+    public Crawler(CrawlConfig config) {
+        this.config = config;
+        // A batch has many sites for its cores, so each gets one worker unless told otherwise
+        this.workers = (config.workers > 0) ? config.workers : (config.seed == null) ? 1 : Runtime.getRuntime().availableProcessors();
+        // One thread delivers the events, shut down once run() is done
+        this.delivery = Executors.newSingleThreadExecutor((r) -> {
+            Thread t = new Thread(r, "mailx-events");
+            t.setDaemon(true);
+            return t;
+        });
+        this.events = new SubmissionPublisher<CrawlEvent>(delivery, config.eventBuffer);
+    }
+
+   /**
+    * How many workers crawl each site
+    */
+    public int workers() {
+        return workers;
+    }
+
+   /**
+    * Subscribe to the events of the crawl. Subscribe before <code>run()</code>, so that
+    * none is missed.
+    */
+    @Override
+    public void subscribe(Flow.Subscriber<? super CrawlEvent> subscriber) {
+        events.subscribe(subscriber);
+    }
+
+   /**
+    * <p>run crawls what the config says, returning once the crawl is over: the single site
+    * the config has a seed for, or else every site of its batch. Subscribers complete once
+    * all events have been published. Throws if what the crawl needs cannot be set up, i.e.
+    * the results file, the cache, the crawl log or the batch file, or if the crawl was run
+    * already.</p>
+    */
+    public void run() throws IOException {
+
+        if (started.getAndSet(true) == true) { throw new IllegalStateException("A Crawler runs once"); }
+        try {
+            crawlAll();
+            events.close();
+        } catch (IOException | RuntimeException e) {
+            events.closeExceptionally(e);
+            throw e;
+        } finally {
+            // Deliveries queued already still run, then the thread ends
+            delivery.shutdown();
+        }
+    } // end run
+
+   /**
+    * Set up what all sites share, crawl them, and release it all
+    */
+    private void crawlAll() throws IOException {
+
+        if (config.maxTime > 0) { deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.maxTime); }
+        Results.Format format = (config.outFormat != null) ? Results.parseFormat(config.outFormat) : null;
+        if (format == null) {
+            format = (config.outFile != null && config.outFile.toLowerCase().endsWith(".csv")) ? Results.Format.CSV : Results.Format.JSONL;
+        }
+        try { results = new Results(config.outFile, format); }
+        catch (Exception e) { throw new IOException("Cannot write results to " + config.outFile + ": " + e.toString(), e); }
+        if (config.cacheDir != null) {
+            try { cache = new HttpCache(Paths.get(config.cacheDir)); }
+            catch (Exception e) { throw new IOException("Cannot keep a cache in " + config.cacheDir + ": " + e.toString(), e); }
+        }
+
+        // What all sites share
+        if (config.noPoliteness == false) { politeness = new Politeness((config.perHost > 0) ? config.perHost : workers, config.rate); }
+        if (config.noText == false) { textScanner = new TextScanner(); }
+        if (config.fast == true) { fastPath = new HttpFastPath(workers, politeness, textScanner); }
+        if (config.noRobots == false || config.noSitemaps == false) { sitemaps = new Sitemaps(politeness); }
+        settler = new JsSettler(config.jsWait, config.jsBudget * 1000);
+        if (config.noFilter == false) { filter = ResourceFilter.defaults(config.scriptCache * 1024L * 1024L); }
+        if (config.browsersMax > 0) { browsers = new Semaphore(config.browsersMax); }
+        if (config.metricsFile != null) { metrics.reportTo(config.metricsFile, config.metricsEvery); }
+
+        // Seed the frontier with startPage, the drill down begins there! Or crawl every
+        // site of the batch
+        try {
+            if (config.seed != null) {
+                single = site(config.seed, results);
+                if (single == null) { throw new IOException("Cannot extract the URI from " + config.seed); }
+                dedup = single.dedup;
+                templates = single.templates;
+                running.add(single);
+                seed(single);
+                if (stopped == true) { single.frontier.stop(); }
+                crawl(single);
+            } else {
+                if (config.noDedup == false) { dedup = new PageDedup(config.dedupDistance); }
+                if (config.noTemplates == false) { templates = new UrlTemplates(config.templateSample, config.templateMax); }
+                batch();
+            }
+        } finally {
+            // All workers are done, no more results will come
+            if (fastPath != null) { fastPath.close(); }
+            if (sitemaps != null) { sitemaps.close(); }
+            if (single != null && single.tracker.crawlLog != null) { single.tracker.crawlLog.close(); }
+            results.close();
+            if (config.metricsFile != null) { metrics.close(config.metricsFile); }
+        }
+    } // end crawlAll
+
+   /**
+    * <p>stop asks the crawl to end early, as a spent budget does: workers take no more links,
+    * and finish the pages they have, and a batch starts no more sites. Returns at once;
+    * <code>run()</code> returns once the workers are done.</p>
+    */
+    public void stop() {
+        stopped = true;
+        running.forEach((site) -> site.frontier.stop());
+    }
+
+   /**
+    * How many distinct emails were found so far, those of each site counted apart
+    */
+    public int emailsFound() {
+        return emailsFound.get();
+    }
+
+   /**
+    * How many links were crawled so far, over all sites
+    */
+    public int linksCrawled() {
+        return linksCrawled.get();
+    }
+
+   /**
+    * Print how the crawl went, once over, in a nice fashion: what each part of it did, the
+    * emails found, and the links crawled
+    */
+    public String summary() {
+
+        StringBuilder summary = new StringBuilder();
+        if (fastPath != null) {
+            summary.append("Fast path: " + fastCrawled.get() + " pages crawled without HtmlUnit, "
+                + fastPromoted.get() + " with dynamic hooks handed to HtmlUnit\n");
+        }
+        if (sitemaps != null) { summary.append(sitemaps.summary() + ", " + disallowed.get() + " links disallowed by robots.txt\n"); }
+        if (cache != null) { summary.append(cache.summary()).append('\n'); }
+        if (dedup != null) { summary.append(dedup.summary()).append('\n'); }
+        if (templates != null) { summary.append(templates.summary()).append('\n'); }
+        if (filter != null) { summary.append(filter.summary()).append('\n'); }
+        if (textScanner != null) { summary.append(textScanner.summary()).append('\n'); }
+        if (politeness != null) { summary.append(politeness.summary()).append('\n'); }
+        if (recycled.get() + spilled.get() > 0) {
+            summary.append("Memory: " + recycled.get() + " browsers recycled, " + spilled.get() + " links spilled to disk\n");
+        }
+        if (retried.get() > 0) { summary.append("Retries: " + retried.get() + " pages queued again after failing to load\n"); }
+        if (routesQueued.get() + routesClicked.get() > 0) {
+            summary.append("Routes: " + routesQueued.get() + " loaded by url, " + routesClicked.get() + " clicked, "
+                + routesRepeated.get() + " repeated ones not taken again\n");
+        }
+        if (single == null) { summary.append("Sites crawled: " + sitesCrawled.get() + "\n"); }
+        summary.append("Emails found: " + emailsFound.get() + "\n");
+        summary.append(results.report());
+
+        if (verbose == true || trace == true) {
+            if (settler != null) { summary.append(settler.summary()).append('\n'); }
+            summary.append(metrics.summary()).append('\n');
+            if (single != null) { summary.append("Url index: " + single.tracker.urls.footprint() + "\n"); }
+        }
+        summary.append("Crawling completed!\nLinks Crawled: " + linksCrawled.get());
+        if (single != null) { summary.append(", " + single.tracker.summary()); }
+        return summary.toString();
+    } // end summary
+
+   /**
+    * Publish what was found at <code>url</code> of <code>site</code>, waiting while a
+    * subscriber has no room for it
+    */
+    private void publish(CrawlEvent.Kind kind, Site site, String url, String email, String message) {
+        events.submit(new CrawlEvent(kind, site.uri, url, email, message));
+    }
+
+   /**
+    * The crawl of the site at <code>seed</code>, keeping the emails found in
+    * <code>results</code>, its pages published as they are visited. Null if no uri can be
+    * extracted from the seed.
+    */
+    private Site site(String seed, Results results) {
+        Site site = Site.of(seed, results, config, deadline);
+        if (site == null) { return null; }
+        site.tracker.events = (kind, url) -> publish(kind, site, url, null,
+            (kind == CrawlEvent.Kind.ERROR) ? "could not be crawled" : null);
+        return site;
+    }
+
+    /**
+    * crawl starts the workers of <code>site</code>, each with its own headless browser,
+    * and waits for them to drain its frontier
+    */
+    private void crawl(Site site) {
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < workers; w++) {
+            threads.add(startThread(new Worker(site), "mailx-worker-" + site.host() + "-" + w));
+        }
+        for (Thread t : threads) {
+            try { t.join(); }
+            catch (InterruptedException e) {
+                System.err.println("Interrupted while waiting for workers to complete!");
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        spilled.addAndGet(site.frontier.spills());
+        if (site.templates != null) { site.templates.closed().forEach((i) -> printlnV(() -> "Closed url template of " + site.uri + ": " + i)); }
+        site.frontier.close();
+        if (site.tracker.crawlLog != null) {
+            site.tracker.crawlLog.close();
+            site.tracker.crawlLog = null;
+        }
+        if (site != single) {
+            // Tally the site into the batch, so that only its counts and emails are kept
+            results.merge(site.results);
+            if (dedup != null) { dedup.tally(site.dedup); }
+            if (templates != null) { templates.tally(site.templates); }
+        }
+        running.remove(site);
+        publish(CrawlEvent.Kind.SITE, site, site.startPage, null, site.summary());
+    } // end crawl
+
+    /**
+    * <p>batch crawls every site whose seed is in the seeds of the config, or read from its
+    * batch file, one per line, or from stdin if it is -. Up to sitesAtOnce sites are
+    * crawled at once, each by its own workers, and with its own url tracker and results;
+    * all of them share the browsers budget, the fast path, the cache, the resource filter
+    * and politeness. A new site is not started while the heap is fuller than maxHeap
+    * percent, nor once the budget is spent or the crawl stopped.</p>
+    *
+    * <p>Sites run on virtual threads when the JVM has them, else on platform threads.</p>
+    */
+    private void batch() throws IOException {
+
+        Semaphore slots = new Semaphore(config.sitesAtOnce);
+        List<Thread> threads = new ArrayList<Thread>();
+        BufferedReader in = null;
+        if (config.batchFile != null) {
+            try {
+                in = config.batchFile.equals("-") ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    : Files.newBufferedReader(Paths.get(config.batchFile), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new IOException("Cannot read seeds from " + config.batchFile + ": " + e.toString(), e);
+            }
+        }
+        Iterable<String> seeds = (in != null) ? in.lines()::iterator
+            : (config.seeds != null) ? config.seeds : Collections.<String>emptyList();
+        try {
+            for (String line : seeds) {
+                if (line.trim().isEmpty() || line.trim().startsWith("#")) { continue; }
+                Site site = site(line, new Results(results));
+                if (site == null) {
+                    System.err.println("Skipping seed, cannot extract the URI from " + line);
+                    continue;
+                }
+                slots.acquire();
+                if (stopped == true || (deadline != 0 && System.nanoTime() - deadline >= 0)) {
+                    printlnV(() -> "Budget spent, or crawl stopped, starting no more sites");
+                    break;
+                }
+                waitForHeap();
+                sitesCrawled.incrementAndGet();
+                running.add(site);
+                threads.add(startThread(() -> {
+                    try {
+                        printlnV(() -> "Starting site " + site.startPage);
+                        start(site, true);
+                        crawl(site);
+                    } finally {
+                        slots.release();
+                    }
+                }, "mailx-site-" + site.host()));
+            }
+        } catch (UncheckedIOException e) {
+            throw new IOException("Cannot read seeds from " + config.batchFile + ": " + e.getCause().toString(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (in != null) { in.close(); }
+            for (Thread t : threads) {
+                try { t.join(); }
+                catch (InterruptedException e) {
+                    System.err.println("Interrupted while waiting for sites to complete!");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    } // end batch
+
+    /**
+    * Wait until the heap is no fuller than maxHeap percent, asking for a collection once
+    */
+    private void waitForHeap() throws InterruptedException {
+        boolean collected = false;
+        while (heapFull() == true) {
+            if (collected == false) {
+                System.gc();
+                collected = true;
+                continue;
+            }
+            Thread.sleep(Frontier.POLL_WAIT);
+        }
+    } // end waitForHeap
+
+    /**
+    * Is the heap fuller than maxHeap percent?
+    */
+    private boolean heapFull() {
+        Runtime runtime = Runtime.getRuntime();
+        return (runtime.totalMemory() - runtime.freeMemory()) * 100 > runtime.maxMemory() * config.maxHeap;
+    }
+
+    /**
+    * Start <code>runnable</code> on a virtual thread named <code>name</code> if the JVM has
+    * them (Java 21 and up), else on a platform thread. Looked up by reflection, so that
+    * Mailx still builds and runs on older JVMs.
+    */
+    static Thread startThread(Runnable runnable, String name) {
+        if (virtualThreads != null) {
+            try {
+                Object builder = virtualThreads.invoke(null);
+                builder = builder.getClass().getMethod("name", String.class).invoke(builder, name);
+                return (Thread) builder.getClass().getMethod("start", Runnable.class).invoke(builder, runnable);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Fall back to a platform thread
+            }
+        }
+        Thread t = new Thread(runnable, name);
+        t.start();
+        return t;
+    } // end startThread
+
+    /**
+    * <p>seed puts the first links in the frontier. For a new crawl this is startPage.</p>
+    *
+    * <p>With --resume, the log of the killed crawl is replayed instead: urls it finished or
+    * errored out on are restored in the <code>UrlTracker</code>, the emails it found in the
+    * results, and urls it queued or had not finished are queued again. With --checkpoint, a
+    * new log is started. Either way, from here on the crawl is logged.</p>
+    */
+    private void seed(Site site) throws IOException {
+
+        String logDir = (config.resumeDir != null) ? config.resumeDir : config.checkpointDir;
+        Map<String, Byte> states = new LinkedHashMap<String, Byte>(); // Last state of each url in the log
+        String[] loggedStart = new String[1];
+        CrawlLog log = null;
+        if (logDir != null) {
+            CrawlLog.Replay replay = (type, text) -> {
+                if (type == CrawlLog.START) { loggedStart[0] = text; }
+                else if (type == CrawlLog.PENDING) { states.putIfAbsent(text, type); }
+                else if (type == CrawlLog.EMAIL) {
+                    int tab = text.indexOf('\t');
+                    if (tab > 0 && site.results.add(text.substring(0, tab), text.substring(tab + 1)) == true) { emailsFound.incrementAndGet(); }
+                }
+                else { states.put(text, type); }
+            };
+            try { log = new CrawlLog(Paths.get(logDir), config.checkpointEvery, (config.resumeDir != null) ? replay : null); }
+            catch (Exception e) { throw new IOException("Cannot open the crawl log in " + logDir + ": " + e.toString(), e); }
+        }
+        if (loggedStart[0] != null && loggedStart[0].equalsIgnoreCase(site.startPage) == false) {
+            System.err.println("Warning! The crawl being resumed started at " + loggedStart[0]);
+        }
+
+        // Restore what the log knows, queueing again what was not finished
+        states.forEach((url, type) -> {
+            if (type == CrawlLog.DONE) { site.tracker.restore(url, UrlIndex.VISITED); }
+            else if (type == CrawlLog.ERRORED) { site.tracker.restore(url, UrlIndex.ERRORED); }
+            else if (site.tracker.addScheduled(url) == true) { site.frontier.offer(url, 0, LinkScore.score(url, null, 0, 0)); }
+        });
+        if (states.isEmpty() == false) {
+            printlnV(() -> "Resumed: " + site.tracker.summary() + ", " + site.frontier.size() + " urls to crawl, "
+                + site.results.size() + " emails found");
+        }
+
+        // From now on, log what we do
+        site.tracker.crawlLog = log;
+        if (states.isEmpty() == true && log != null) { log.append(CrawlLog.START, site.startPage); }
+        start(site, states.isEmpty());
+    } // end seed
+
+    /**
+    * <p>start reads the robots.txt of <code>site</code>, unless --no-robots, so that the
+    * pages it disallows are never queued. For a <code>fresh</code> crawl it then queues
+    * startPage, and the pages of the site its sitemaps list, unless --no-sitemaps, all
+    * before any worker renders a page.</p>
+    */
+    private void start(Site site, boolean fresh) {
+
+        Robots robots = (sitemaps != null) ? sitemaps.robots(site) : null;
+        if (config.noRobots == false) { site.robots = robots; }
+        if (fresh == false) { return; }
+
+        if (site.allows(site.startPage) == false) {
+            System.err.println("robots.txt of " + site.uri + " disallows " + site.startPage + ", crawling what its sitemaps list");
+        }
+        queueLinks(site, Collections.singletonList(site.startPage), 0, 0, null);
+        if (sitemaps != null && config.noSitemaps == false) {
+            int listed = sitemaps.read(site, (robots != null) ? robots.sitemaps : Collections.emptyList(),
+                (urls) -> queueLinks(site, filterByType(urls), 1, 0, null));
+            printlnV(() -> "Sitemaps of " + site.uri + " list " + listed + " urls, " + site.frontier.size() + " queued");
+        }
+    } // end start
+
+
+    /**
+    * <p>readPage walks the DOM of the current page once, collecting the strings that might
+    * hold emails: its text nodes and comments with an '@', and the mailboxes of its mailto:
+    * anchors. All its text, but for scripts and styles, goes into <code>print</code>,
+    * unless null.</p>
+    */
+    static List<String> readPage (HtmlPage page, PageDedup.Fingerprint print) {
+
+        List<String> possibles = new ArrayList<String>();
+        for (DomNode node : page.getDescendants()) {
+            if (node instanceof DomCharacterData) {
+                // Text and comments alike
+                DomNode parent = node.getParentNode();
+                if (parent instanceof HtmlScript || parent instanceof HtmlStyle) { continue; }
+                String data = ((DomCharacterData) node).getData();
+                if (print != null) { print.add(data); }
+                if (data.indexOf('@') >= 0) { possibles.add(data); }
+            } else if (node instanceof HtmlAnchor) {
+                // The mailbox of a mailto:, up to its ?subject= and the like
+                String href = ((HtmlAnchor) node).getHrefAttribute();
+                if (href.regionMatches(true, 0, "mailto:", 0, 7)) {
+                    int query = href.indexOf('?');
+                    String mailbox = href.substring(7, (query < 0) ? href.length() : query).replace("%40", "@");
+                    if (print != null) { print.add(mailbox); }
+                    possibles.add(mailbox);
+                }
+            }
+        }
+        return possibles;
+    } // End readPage
+
+    /**
+    * <p>searchPage looks for emails in the <code>possibles</code> read from a page by
+    * <code>readPage</code>, each scanned in place by <code>EmailScanner</code>. The emails
+    * found are also added to <code>found</code>, unless null, and those new to the site
+    * counted in <code>fresh</code>, unless null.</p>
+    */
+    private void searchPage (Site site, List<String> possibles, String pageUrl, List<String> found, AtomicInteger fresh) {
+
+        printlnT(() -> "---- Possibilities found: " + possibles.size());
+        possibles.forEach((i) -> { searchText(site, i, pageUrl, found, fresh); });
+
+    } // End searchPage
+
+    /**
+    * searchText looks for strings that might be emails in a fragment of text
+    * found at <code>pageUrl</code>, and prints them.
+    */
+    private void searchText (Site site, String text, String pageUrl, List<String> found, AtomicInteger fresh) {
+        searchText(site, text, 0, text.length(), pageUrl, found, fresh);
+    } // End searchText
+
+    /**
+    * searchText looks for strings that might be emails in the range [from, to) of
+    * <code>text</code>, found at <code>pageUrl</code>, and reports them. They are also
+    * added to <code>found</code>, unless null, and those new to the site counted in
+    * <code>fresh</code>, unless null.
+    */
+    private void searchText (Site site, String text, int from, int to, String pageUrl, List<String> found, AtomicInteger fresh) {
+
+        EmailScanner.scan(text, from, to, (t, start, end) -> {
+            String email = t.subSequence(start, end).toString();
+            reportEmail(site, email, pageUrl, fresh);
+            if (found != null) { found.add(email); }
+        });
+    } // End searchText
+
+    /**
+    * reportEmail adds an email found at <code>pageUrl</code> to the results of its site. Each
+    * email is published the first time it is found in the site, or printed every time in
+    * trace mode. New emails are counted in <code>fresh</code>, unless null.
+    */
+    private void reportEmail (Site site, String email, String pageUrl, AtomicInteger fresh) {
+        boolean first = site.results.add(email, pageUrl);
+        if (first == true) { emailsFound.incrementAndGet(); }
+        if (first == true && fresh != null) { fresh.incrementAndGet(); }
+        if (first == true && site.tracker.crawlLog != null) { site.tracker.crawlLog.append(CrawlLog.EMAIL, email + '\t' + pageUrl); }
+        if (first == true) { publish(CrawlEvent.Kind.EMAIL, site, pageUrl, email, null); }
+        else { printlnT(() -> MARGIN + email + " again [at " + pageUrl + "]"); }
+    } // End reportEmail
+
+    // An enum for visitStaticLinks() and getStaticLinks(), actions for ANCHOR and HREF 
+    // are nearly identical
+    enum LinkType { ANCHOR, HREF }
+
+    /**
+    * queueStaticLinks offers to the frontier all static links of the current page
+    * that no worker has visited or queued yet, <code>depth</code> hops from the start page,
+    * and scored by the <code>emails</code> found in the page and the text of their anchors.
+    * The links are crawled later by whichever worker takes them. Returns all the links of
+    * the page, queued or not.
+    */
+    private Set<String> queueStaticLinks (Site site, HtmlPage page, String pageUrl, int depth, int emails) {
+
+        // Get the anchors, then the HREFS, store them in links
+        Map<String, String> anchors = new HashMap<String, String>();
+        Set<String> links = getStaticLinks (site, page, pageUrl, LinkType.ANCHOR, anchors);
+        links.addAll (getStaticLinks (site, page, pageUrl, LinkType.HREF));
+
+        // Now we queue the static content that we accumulated
+        queueLinks(site, links, depth, emails, anchors);
+        return links;
+    } // end queueStaticLinks
+
+    /**
+    * queueFastLinks offers to the frontier the hrefs the fast path found in a page,
+    * keeping those in this website as <code>getStaticLinks</code> does. They are resolved
+    * against <code>base</code>, the page's &lt;base&gt; if it had one, and queued as
+    * <code>queueStaticLinks</code> does. Returns the links kept, queued or not.
+    */
+    private Set<String> queueFastLinks (Site site, HttpFastPath.Result result, String pageUrl, int depth, int emails) {
+
+        // The page's <base> is itself relative to the page
+        String resolveTo = (result.base != null) ? UrlCanon.resolve(pageUrl, result.base) : pageUrl;
+        if (resolveTo == null) { resolveTo = pageUrl; }
+        Set<String> linksAsSet = new HashSet<String>();
+        Map<String, String> anchors = new HashMap<String, String>();
+        for (String i : result.hrefs) {
+            String link = UrlCanon.resolve(resolveTo, i);
+            if (site.contains(link) == false) { continue; }
+            linksAsSet.add(link);
+            String anchor = result.anchors.get(i);
+            if (anchor != null) { anchors.putIfAbsent(link, anchor); }
+        }
+        printlnT(() -> "At " + pageUrl + "\nFast path links found " + linksAsSet.size());
+
+        Set<String> links = filterByType(linksAsSet);
+        queueLinks(site, links, depth, emails, anchors);
+        return links;
+    } // end queueFastLinks
+
+    /**
+    * queueLinks offers to the frontier those <code>links</code> that no worker has
+    * visited or queued yet, and that robots.txt allows, <code>depth</code> hops from the
+    * start page. Each is scored by <code>LinkScore</code>, from the <code>emails</code>
+    * found in the page linking to it, and the text of its anchor in <code>anchors</code>
+    * if not null.
+    */
+    private void queueLinks (Site site, Collection<String> links, int depth, int emails, Map<String, String> anchors) {
+        links.forEach((i) -> {
+            if (site.allows(i) == false) {
+                disallowed.incrementAndGet();
+                printlnT(() -> MARGIN + "Disallowed by robots.txt: " + i);
+            } else if (site.templates != null && site.templates.allows(i) == false) {
+                printlnT(() -> MARGIN + "Url template closed: " + i);
+                site.tracker.addSkipped(i);
+            } else if (site.tracker.addScheduled(i) == true) {
+                int score = LinkScore.score(i, (anchors != null) ? anchors.get(i) : null, depth, emails);
+                printlnT(() -> "---- queueing static link: " + i + " (score " + score + ")");
+                site.frontier.offer(i, depth, score);
+            }
+        });
+    } // end queueLinks
+
+    /**
+    * getStaticLinks visits the anchors and hyperlink expressions of the current page
+    * let it be ANCHORs or HREFs based on the input of the parameter <code>type</type> 
+    * and returns them as a set. Their href attributes are resolved as the browser would,
+    * against the page's &lt;base&gt; if any, and made canonical by <code>UrlCanon</code>.
+    */
+    static Set<String> getStaticLinks (Site site, HtmlPage page, String pageUrl, LinkType type) {
+        return getStaticLinks(site, page, pageUrl, type, null);
+    } // getStaticLinks
+
+    /**
+    * getStaticLinks as above, also putting the text of the first anchor of each link
+    * in <code>anchors</code>, if not null
+    */
+    static Set<String> getStaticLinks (Site site, HtmlPage page, String pageUrl, LinkType type, Map<String, String> anchors) {
+
+
+        // What we find as a list, might have many duplicates
+        final List<String> linksAsList;
+        List<HtmlAnchor> anchorElements = null;
+
+        if (type == LinkType.ANCHOR) {
+            // Get all the links that might be stored in elements understood as anchors by the browser
+            anchorElements = page.getAnchors();
+            linksAsList = anchorElements.stream()
+                .map(HtmlAnchor::getHrefAttribute)
+                .collect(Collectors.toList());
+            printlnT(() -> "At " + pageUrl + "\nTotal anchors found " + linksAsList.size());
+        }
+        else if (type == LinkType.HREF) {
+            // Get all links that are understood as HREFs by the browser
+            linksAsList = page.getElementsByTagName("link").stream()
+                .map((i) -> i.getAttribute("href"))
+                .collect(Collectors.toList());
+            printlnT(() -> "At " + pageUrl + "\nLinks found " + linksAsList.size());
+        } else {
+            System.err.println ("Error! Unsuported type " + type);
+            return null;
+        }
+
+        // We will eliminate duplicates by returning a set of canonical urls
+        Set<String> linksAsSet = new HashSet<String>();
+        for (int a = 0; a < linksAsList.size(); a++) {
+            String i = linksAsList.get(a);
+            if (i == DomElement.ATTRIBUTE_NOT_DEFINED || i.isEmpty()) { continue; }
+            String link;
+            try { link = UrlCanon.canonical(page.getFullyQualifiedUrl(i)); }
+            catch (MalformedURLException e) { continue; }
+            if (site.contains(link) == false) { continue; }
+            linksAsSet.add(link);
+            if (anchors != null && anchorElements != null) { anchors.putIfAbsent(link, anchorElements.get(a).getTextContent()); }
+        }
+        printlnT(() -> "------ Possible Links (Anchors & HREFs) to Drill Into: -----");
+        linksAsList.forEach((i) -> { printlnT(() -> MARGIN + i); });
+        printlnT(() -> "------ Count: " + linksAsList.size());
+
+
+        // Now filter and remove static links to (presumed) binaries we do not search,
+        // return the output
+        
+        return filterByType(linksAsSet);
+    } // getStaticLinks
+
+    /**
+    * filterByType removes links to static links such as pngs, jpgs, icos, and
+    * under types that we cannot currently handle, which are stored in the regex
+    * skipP 
+    */
+    static Set<String> filterByType(Set<String> urls) {
+
+        Set<String> urlsOut = new HashSet<String>();
+        urls.forEach((i) -> {
+            Matcher m = skipP.matcher(i);
+            if (m.matches()) {
+                printlnT(() -> MARGIN + "Skipping due to filetype: " + i);
+            } else { 
+                // It did not match the filter, we keep it!
+                urlsOut.add(i);
+            } 
+            m.reset();
+        });
+        return urlsOut;
+    }
+
+
+    /**
+    * setWebClient sets up an HtmlUnit web client (i.e. the simulated browser) with
+    * many settings that have proven correct in the field. Each worker gets its own.
+    */
+    private static WebClient setWebClient() {
+        // Turn the logger for htmlUnit off, otherwise we will be swamped indeed
+        java.util.logging.Logger.getLogger("com.gargoylesoftware").setLevel(Level.OFF);
+        java.util.logging.Logger.getLogger("org.apache.http").setLevel(Level.OFF);
+
+        // Get the headless browser
+        WebClient webClient = null;
+        try { webClient = new WebClient(BrowserVersion.FIREFOX_38); }
+        catch (Exception e) { throw new IllegalStateException("Could not open browser window!", e); }
+
+        // Suppress myriad of javascript errors, like real browsers do
+        webClient.getOptions().setThrowExceptionOnScriptError(false);
+
+        // Set up the web client with many values that have proven to work in the field
+        // Take some off, everything goes haywire. Know it by experience!
+        webClient.getOptions().setCssEnabled(true); 
+        webClient.setCssErrorHandler(new SilentCssErrorHandler());
+        webClient.setAjaxController(new NicelyResynchronizingAjaxController()); 
+        webClient.waitForBackgroundJavaScript(10 * 1000);
+        webClient.getOptions().setThrowExceptionOnFailingStatusCode(false); 
+        webClient.getOptions().setThrowExceptionOnScriptError(false); 
+        webClient.getOptions().setRedirectEnabled(false); 
+        webClient.getOptions().setAppletEnabled(false); 
+        webClient.getOptions().setJavaScriptEnabled(true); 
+        webClient.getOptions().setPopupBlockerEnabled(true); 
+        webClient.getOptions().setTimeout(5000); 
+        webClient.getOptions().setPrintContentOnFailingStatusCode(false); 
+
+        return webClient;
+    } // end setWebClient
+
+    /**
+    * Thread.ofVirtual() if there is such a method, null otherwise
+    */
+    private static Method virtualThreads() {
+        try { return Thread.class.getMethod("ofVirtual"); }
+        catch (NoSuchMethodException e) { return null; }
+    }
+
+   /**
+    * Print to the console if verbose mode is on (-v at the command line).
+    * Also prints when trace mode is on.
+    */
+    static void printlnV(Supplier<String> str) {
+        // Print out if verbose or trace mode are on, only then is the string built
+        if (verbose == true || trace == true) { System.out.println(str.get()); }
+    } // end printlnT
+
+   /**
+    * Print to the console if trace mode is on (-t at the command line)
+    */
+    static void printlnT(Supplier<String> str) {
+        // Print out only if trace mode is on, only then is the string built
+        if (trace == true) { System.out.println(str.get()); }
+    } // end printlnT
+
+
+    // Helper static nested classes //
+
+   /**
+    * <p>A Worker owns one headless browser and crawls the links it takes from the 
+    * <code>frontier</code> until the crawl is complete. Static links found along the way
+    * are offered back to the frontier, for any worker to take.</p>
+    *
+    * <p>Dynamic links need the browser state of the page they were found in, so a worker
+    * explores them itself, keeping the pages it has clicked through in an explicit stack
+    * rather than by recursion.</p>
+    */
+    private class Worker implements Runnable {
+
+        final Site site; // The website this worker crawls
+        WebClient webClient; // This worker's headless browser, once it has one
+        int pages; // Pages loaded by that browser since it was opened
+        Frontier.Link link; // The link being crawled
+        final AtomicInteger fresh = new AtomicInteger(); // Emails new to the site found while crawling it
+
+        Worker(Site site) {
+            this.site = site;
+        }
+
+       /**
+        * Get a browser, once one of the <code>--browsers</code> is free, then take links from
+        * the frontier of the site and crawl them, until there are no more
+        */
+        @Override
+        public void run() {
+            try {
+                if (browsers != null) { browsers.acquire(); }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                openBrowser();
+                while ((link = site.frontier.take()) != null) {
+                    try {
+                        // Links queued before their template was closed are dropped here.
+                        // Only pages actually searched count toward their template
+                        fresh.set(0);
+                        if (site.templates == null) { crawl(link.url); }
+                        else if (site.templates.allows(link.url) == false) { site.tracker.addSkipped(link.url); }
+                        else if (crawl(link.url) == true) { site.templates.crawled(link.url, fresh.get()); }
+                    }
+                    catch (Exception e) {
+                        // If we error out, skip that link but try the others!
+                        site.tracker.addErrored(link.url);
+                        final String failed = link.url;
+                        printlnV(() -> "Unexpected error while crawling " + failed);
+                        if (trace) { e.printStackTrace(); }
+                    }
+                    finally { site.frontier.done(); }
+
+                    // Whatever HtmlUnit holds on to, that we cannot release, goes with its browser
+                    if (pages >= config.recycleAfter || (pages >= RECYCLE_MIN && heapFull() == true)) {
+                        final int loaded = pages;
+                        printlnV(() -> "Recycling the browser of " + Thread.currentThread().getName() + " after " + loaded + " pages");
+                        webClient.close();
+                        openBrowser();
+                        recycled.incrementAndGet();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // HtmlUnit needs this call to release resources...
+                if (webClient != null) { webClient.close(); }
+                if (browsers != null) { browsers.release(); }
+            }
+        } // end run
+
+       /**
+        * Open this worker's browser, with the wrappers its requests go through
+        */
+        private void openBrowser() {
+            webClient = setWebClient();
+            pages = 0;
+            // The filter goes in front, so that what it answers never reaches the cache,
+            // and politeness next to the network, so that it only counts what goes out.
+            // Text is searched as the browser gets it, from the network or from memory
+            if (politeness != null) { politeness.install(webClient); }
+            if (cache != null) { cache.install(webClient); }
+            if (filter != null) { filter.install(webClient, site.host()); }
+            if (textScanner != null) {
+                textScanner.install(webClient, site.host(), site.scanned, (email, url) -> reportEmail(site, email, url, fresh));
+            }
+        } // end openBrowser
+
+       /**
+        * <p>Let go of the page the browser is on, once it has been dealt with: its timers are
+        * cancelled, windows its scripts opened are closed, and a blank page takes its place,
+        * so that its DOM and scripts can be collected before the next page is taken. The
+        * history leading to it is dropped as well, as only the clicks on a page go back.</p>
+        */
+        private void release() {
+            pages++;
+            WebWindow window = webClient.getCurrentWindow().getTopWindow();
+            window.getJobManager().removeAllJobs();
+            for (TopLevelWindow opened : new ArrayList<TopLevelWindow>(webClient.getTopLevelWindows())) {
+                if (opened != window) { opened.close(); }
+            }
+            try { webClient.getPage(window, new WebRequest(WebClient.URL_ABOUT_BLANK)); }
+            catch (Exception e) {
+                printlnT(() -> "Cannot blank the browser " + e.toString());
+            }
+            History history = window.getHistory();
+            while (history.getLength() > 1) { history.removeCurrent(); }
+        } // end release
+
+       /**
+        * Crawl, but limit ourselves to only links that we have not visited before
+        * <code>Crawl(String pageUrl)</code> is called for pages for which we have a static URL.
+        * <code>Crawl()</code> is really a function that sets the stage for <code>traverse()</code>
+        *  to do the work. Returns true if the page was searched, false if it was skipped,
+        *  failed, is to be retried, or showed the same content as a page searched before.
+        */
+        private boolean crawl(String pageUrl) {
+
+            // Increase crawl count
+            linksCrawled.incrementAndGet();
+            site.linksCrawled.incrementAndGet();
+
+            // First, check if we have been at this URL before, we back out
+            if (site.tracker.hasBeenVisited(pageUrl) == true) {
+                printlnT(() -> "We have already visited " + pageUrl + ". Skipping it");
+                return false;
+            }
+
+            // With a cache the response decides, otherwise static pages are done
+            // without HtmlUnit if we can. Hash routes only exist once a browser runs the page
+            boolean hashRoute = pageUrl.indexOf('#') >= 0;
+            if (cache != null && hashRoute == false) {
+                return crawlCached(pageUrl);
+            }
+            if (fastPath != null && hashRoute == false) {
+                Boolean searched = crawlFast(pageUrl);
+                if (searched != null) { return searched; }
+            }
+
+            // Connect and get the page, backout if we can't.
+            printlnV(() -> "Crawling Static Link w/URL=" + pageUrl);
+            Page page;  // This will be the page we will be working on, as represented by htmlUnit
+            Metrics.PhaseEvent fetch = Metrics.begin(Metrics.Phase.FETCH);
+            if (politeness != null) { politeness.loadingPage(true); }
+            try { page = webClient.getPage(pageUrl); }
+            catch (Exception e) {
+                retryLater(pageUrl, e);
+                printlnT(() -> "HtmlUnit getPage exception " + e.toString());
+                if (trace) { e.printStackTrace(); }
+                return false;
+            }
+            finally {
+                if (politeness != null) { politeness.loadingPage(false); }
+                metrics.end(fetch, pageUrl);
+            }
+            try {
+                if (page instanceof HtmlPage) { return crawl((HtmlPage) page, pageUrl); }
+                else { return crawlText(pageUrl, page.getWebResponse().getContentType(), null); }
+            } finally {
+                release();
+            }
+
+        } // End crawl
+
+       /**
+        * Crawl <code>page</code>, just loaded from static URL <code>pageUrl</code>: search it,
+        * then visit its dynamic links. Pages without any to click are remembered by the cache,
+        * with the routes they lead to among their links. Returns true if it was searched.
+        */
+        private boolean crawl(HtmlPage page, String pageUrl) {
+
+            // Wait for the page's JavaScript and HtmlUnit to catch up.
+            settle(page, pageUrl);
+
+            // Now do the actual crawling by traversing from the HtmlPage page loaded,
+            // then click through its dynamic links
+            List<String> emails = new ArrayList<String>();
+            Set<String> links = new HashSet<String>();
+            if (traverse (page, pageUrl, emails, links) == false) { return false; }
+            int clicked = visitDynamicLinks (page, pageUrl, links);
+            if (cache != null && clicked == 0) { cache.remember(pageUrl, emails, links); }
+            site.tracker.addDone(pageUrl);
+            return true;
+        } // End crawl
+
+       /**
+        * <p>crawlCached gets the response for <code>pageUrl</code> through the cache. If the
+        * server says the page did not change, and what was found in it the last time is on
+        * disk, that is reused as is. Otherwise the response is handed to the fast path, if on,
+        * then to HtmlUnit, as it would have been without a cache. Returns true if the page,
+        * or what was found in it, was searched.</p>
+        */
+        private boolean crawlCached(String pageUrl) {
+
+            printlnV(() -> "Crawling Static Link w/URL=" + pageUrl + " via the cache");
+            WebResponse response;
+            Metrics.PhaseEvent fetch = Metrics.begin(Metrics.Phase.FETCH);
+            if (politeness != null) { politeness.loadingPage(true); }
+            try { response = webClient.loadWebResponse(new WebRequest(new URL(pageUrl))); }
+            catch (Exception e) {
+                retryLater(pageUrl, e);
+                printlnT(() -> "HtmlUnit loadWebResponse exception " + e.toString());
+                if (trace) { e.printStackTrace(); }
+                return false;
+            }
+            finally {
+                if (politeness != null) { politeness.loadingPage(false); }
+                metrics.end(fetch, pageUrl);
+            }
+
+            // Not modified, and processed last time: take what was found then
+            if (HttpCache.isNotModified(response) == true) {
+                HttpCache.Entry entry = cache.read(pageUrl);
+                if (entry != null && entry.emails != null) {
+                    if (site.tracker.addVisited(pageUrl) == false) {
+                        printlnT(() -> "Another worker already visited " + pageUrl + ". Skipping it");
+                        return false;
+                    }
+                    printlnV(() -> MARGIN + "Not modified, reusing " + entry.emails.size() + " emails and "
+                        + entry.links.size() + " links");
+                    cache.reused.incrementAndGet();
+                    entry.emails.forEach((i) -> { reportEmail(site, i, pageUrl, fresh); });
+                    queueLinks(site, entry.links, link.depth + 1, entry.emails.size(), null);
+                    site.tracker.addDone(pageUrl);
+                    return true;
+                }
+            }
+
+            // Changed, or new: process the response as usual. Text was searched as it came in
+            String contentType = response.getContentType();
+            if (textScanner != null && TextScanner.kind(contentType, pageUrl) != null) {
+                return crawlText(pageUrl, contentType, null);
+            }
+            try {
+                if (fastPath != null) {
+                    String charset = response.getContentCharsetOrNull();
+                    HttpFastPath.Result result = HttpFastPath.scan(response.getContentAsStream(),
+                        response.getContentType(), (charset != null) ? Charset.forName(charset) : null);
+                    Boolean searched = crawlFast(pageUrl, result);
+                    if (searched != null) { return searched; }
+                }
+                Metrics.PhaseEvent load = Metrics.begin(Metrics.Phase.FETCH);
+                HtmlPage page;
+                try { page = (HtmlPage) webClient.loadWebResponseInto(response, webClient.getCurrentWindow()); }
+                finally { metrics.end(load, pageUrl); }
+                try { return crawl(page, pageUrl); }
+                finally { release(); }
+            } catch (Exception e) {
+                site.tracker.addErrored(pageUrl);
+                printlnT(() -> "HtmlUnit loadWebResponseInto exception " + e.toString());
+                if (trace) { e.printStackTrace(); }
+                return false;
+            }
+        } // end crawlCached
+
+       /**
+        * <p>crawlFast fetches <code>pageUrl</code> with plain HTTP, and if the page turns out
+        * to have no dynamic hooks, searches it and queues its links right away. Returns whether
+        * the page was searched once dealt with, or null if it needs HtmlUnit.</p>
+        */
+        private Boolean crawlFast(String pageUrl) {
+
+            printlnV(() -> "Crawling Static Link w/URL=" + pageUrl + " via the fast path");
+            HttpFastPath.Result result;
+            Metrics.PhaseEvent fetch = Metrics.begin(Metrics.Phase.FETCH);
+            try { result = fastPath.fetch(pageUrl); }
+            catch (Exception e) {
+                retryLater(pageUrl, e);
+                printlnT(() -> "Fast path fetch exception " + e.toString());
+                if (trace) { e.printStackTrace(); }
+                return Boolean.FALSE;
+            }
+            finally { metrics.end(fetch, pageUrl); }
+            return crawlFast(pageUrl, result);
+        } // end crawlFast
+
+       /**
+        * <p>crawlFast goes on with the <code>result</code> of scanning <code>pageUrl</code>
+        * with plain HTTP. Returns whether the page was searched once dealt with, or null if it
+        * needs HtmlUnit.</p>
+        */
+        private Boolean crawlFast(String pageUrl, HttpFastPath.Result result) {
+
+            // Text, searched as it came in
+            if (result.text == true) {
+                return crawlText(pageUrl, null, result.texts);
+            }
+
+            // Not html, or dynamic: let HtmlUnit judge
+            if (result.html == false || result.dynamic == true) {
+                printlnV(() -> MARGIN + "Dynamic hooks or not html, handing over to HtmlUnit");
+                fastPromoted.incrementAndGet();
+                return null;
+            }
+
+            // Mark we have been here! Unless someone else has been already
+            if (site.tracker.addVisited(pageUrl) == false) {
+                printlnT(() -> "Another worker already visited " + pageUrl + ". Skipping it");
+                return Boolean.FALSE;
+            }
+            fastCrawled.incrementAndGet();
+            if (isDuplicate(result.print, pageUrl) == true) { return Boolean.FALSE; }
+            printlnT(() -> "---- Possibilities found: " + result.texts.size());
+            List<String> emails = new ArrayList<String>();
+            Metrics.PhaseEvent search = Metrics.begin(Metrics.Phase.SEARCH);
+            result.texts.forEach((i) -> { searchText(site, i, pageUrl, emails, fresh); });
+            metrics.end(search, pageUrl);
+            Metrics.PhaseEvent extract = Metrics.begin(Metrics.Phase.LINKS);
+            Set<String> links = queueFastLinks(site, result, pageUrl, link.depth + 1, emails.size());
+            metrics.end(extract, pageUrl);
+            if (cache != null) { cache.remember(pageUrl, emails, links); }
+            site.tracker.addDone(pageUrl);
+            return Boolean.TRUE;
+        } // end crawlFast
+
+       /**
+        * <p>crawlText deals with <code>pageUrl</code>, which turned out not to be html. If it
+        * is text, it was searched without a DOM as it came in, by the browser's
+        * <code>TextScanner</code>, or by the fast path, which hands the emails it found in
+        * <code>texts</code>. Otherwise there is nothing we can search in it. Returns true if
+        * it was searched.</p>
+        */
+        private boolean crawlText(String pageUrl, String contentType, List<String> texts) {
+
+            if (texts == null && (textScanner == null || TextScanner.kind(contentType, pageUrl) == null)) {
+                printlnV(() -> MARGIN + pageUrl + " is " + contentType + ", nothing to search in it");
+                site.tracker.addErrored(pageUrl);
+                return false;
+            }
+            if (site.tracker.addVisited(pageUrl) == false) {
+                printlnT(() -> "Another worker already visited " + pageUrl + ". Skipping it");
+                return false;
+            }
+            List<String> emails = new ArrayList<String>();
+            if (texts != null) {
+                site.scanned.add(pageUrl);
+                texts.forEach((i) -> { searchText(site, i, pageUrl, emails, fresh); });
+                if (cache != null) { cache.remember(pageUrl, emails, Collections.emptySet()); }
+            }
+            site.tracker.addDone(pageUrl);
+            return true;
+        } // end crawlText
+
+       /**
+        * <p> Crawl from the current page dynamically reached by simulating a click. The current
+        * page is passed in parameter page. Notice that <code>Crawl(String pageUrl)</code> is 
+        * instead called with a String parameter for pages that are expressed via a static URL.</p>
+        *
+        * Because the URL of a page resulting from a script/route cannot be anticipated until
+        * the browser is called, this page might not be inside this website. If this is the case
+        * the method backs out of this page. To back out the code simulates pressing the "back"
+        * button of the simulated browser.
+        *
+        * Returns true if the page was traversed, and so its own dynamic links are to be visited.
+        * It is done only once they have been, see <code>visitDynamicLinks()</code>.
+        */
+        private boolean crawl(HtmlPage page) {
+
+            // Increase crawl count, wait for the page's JavaScript and HtmlUnit to catch up.
+            linksCrawled.incrementAndGet();
+            site.linksCrawled.incrementAndGet();
+            final String pageUrl = canonicalUrl(page);
+            settle(page, pageUrl);
+            printlnV(() -> "Crawling Dynamic Link w/URL=" + pageUrl);
+
+            // Now check if we have been at this URL before, OR if this dynamic
+            // link is actually not in this website, if so we back out
+            if (site.tracker.hasBeenVisited(pageUrl) == true) {
+                printlnV(() -> MARGIN + pageUrl + " already crawled. Back buttoning it");
+                back(pageUrl);
+                return false;
+            }
+
+            // As this crawl(HtmlPage page) method gets called dynamically, it is possible that
+            // the website's dynamic code has redirected us out to a different website, so we 
+            // need to check and if so backout
+            if (pageUrl.startsWith(site.uri) == false) { 
+                printlnV(() -> MARGIN + "Dynamic link/route sent us outside this website. Backing out and back buttoning!");
+                back(pageUrl);
+                return false;
+            }
+
+            // Now do the actual crawling by traversing from the HtmlPage page loaded
+            return traverse (page, pageUrl, null, null);
+
+        } // End crawl
+
+       /**
+        * <code>pageUrl</code> failed to load with <code>e</code>. If the network or the server
+        * failed, queue it again after a backoff, unless it failed too many times already.
+        * Otherwise, or then, it is errored out for good.
+        */
+        private void retryLater(String pageUrl, Exception e) {
+            if (e instanceof IOException == false) {
+                site.tracker.addErrored(pageUrl);
+                return;
+            }
+            int attempt = site.attempts.merge(pageUrl, 1, Integer::sum);
+            if (attempt > config.retries) {
+                site.attempts.remove(pageUrl);
+                site.tracker.addErrored(pageUrl);
+                return;
+            }
+            long delay = Politeness.backoff(attempt);
+            printlnV(() -> MARGIN + "Could not load " + pageUrl + ", trying again in " + delay + " mS");
+            retried.incrementAndGet();
+            site.frontier.offerLater(link, delay);
+        } // end retryLater
+
+       /**
+        * The url of <code>page</code>, canonical if it is an http(s) one, with its hash route if any
+        */
+        private String canonicalUrl(HtmlPage page) {
+            String url = UrlCanon.route(page.getUrl().toString(), page.getUrl().toString());
+            return (url != null) ? url : page.getUrl().toString();
+        }
+
+       /**
+        * Simulate pressing the browser's back button, after a dynamic link took us
+        * to <code>pageUrl</code>, a page we do not want.
+        */
+        private void back(String pageUrl) {
+            Metrics.PhaseEvent back = Metrics.begin(Metrics.Phase.BACK);
+            try { webClient.getWebWindows().get(0).getHistory().back(); }
+            catch (Exception e) {
+                site.tracker.addErrored(pageUrl); // Could be out of the website
+                System.err.println("Back button after dynamic link invocation failed.");
+                if (trace) { e.printStackTrace(); }
+            }
+            finally { metrics.end(back, pageUrl); }
+        } // end back
+
+       /**
+        * Wait for the JavaScript of <code>page</code>, at <code>pageUrl</code>, to settle
+        */
+        private void settle(HtmlPage page, String pageUrl) {
+            Metrics.PhaseEvent settle = Metrics.begin(Metrics.Phase.SETTLE);
+            long settled = settler.settle(webClient, page);
+            metrics.end(settle, pageUrl);
+            printlnT(() -> MARGIN + "JavaScript settled in " + settled + " mS");
+        } // end settle
+
+       /**
+        * <p>traverse marks the current page as visited by calling the helper class
+        * <code>site.tracker.addVisited()</code> method, backing out if another worker got 
+        * here first. It then looks for text, comment and mailto nodes that might
+        * contain email strings by calling <code>readPage</code>, which visits all HTML
+        * nodes at once, and <code>searchPage</code>.</p>
+        * 
+        * <p>In addition, static links are collected and queued in the frontier, via
+        * <code>queueStaticLinks</code>. Returns true if the page was traversed, false if
+        * it was visited already, or shows the same content as a page traversed before.</p>
+        *
+        * <p>The emails and links found are added to <code>emails</code> and <code>links</code>,
+        * unless null.</p>
+        */
+        private boolean traverse (HtmlPage page, String pageUrl, List<String> emails, Set<String> links) {
+
+            // Mark we have been here! Unless someone else has been already
+            if (site.tracker.addVisited(pageUrl) == false) {
+                printlnT(() -> "Another worker already visited " + pageUrl + ". Skipping it");
+                return false;
+            }
+
+            // The page is open and loaded, now we can read text, comments and mailtos,
+            // and search them unless the same content was searched already
+            Metrics.PhaseEvent search = Metrics.begin(Metrics.Phase.SEARCH);
+            PageDedup.Fingerprint print = (site.dedup != null) ? new PageDedup.Fingerprint() : null;
+            List<String> possibles = readPage(page, print);
+            boolean duplicate = isDuplicate(print, pageUrl);
+            List<String> found = (emails != null) ? emails : new ArrayList<String>();
+            if (duplicate == false) { searchPage(site, possibles, pageUrl, found, fresh); }
+            metrics.end(search, pageUrl);
+            if (duplicate == true) { return false; }
+
+            // Here we hand all static links to the frontier
+            Metrics.PhaseEvent extract = Metrics.begin(Metrics.Phase.LINKS);
+            Set<String> queued = queueStaticLinks (site, page, pageUrl, link.depth + 1, found.size());
+            if (links != null) { links.addAll(queued); }
+            metrics.end(extract, pageUrl);
+
+            return true;
+        } // end traverse
+
+       /**
+        * isDuplicate checks the page at <code>pageUrl</code>, already marked visited, against
+        * the pages traversed before. A duplicate is marked done, as there is nothing more to
+        * do with it. Always false if <code>print</code> is null, or dedup is off.
+        */
+        private boolean isDuplicate (PageDedup.Fingerprint print, String pageUrl) {
+            if (site.dedup == null || print == null) { return false; }
+            String original = site.dedup.check(print, pageUrl);
+            if (original == null) { return false; }
+            printlnV(() -> MARGIN + pageUrl + " shows the same content as " + original + ". Skipping it");
+            site.tracker.addDone(pageUrl);
+            return true;
+        } // end isDuplicate
+
+       /**
+        * <p>visitDynamicLinks finds clickable items in the current page. Those whose route
+        * can be read from them are handed to the frontier as links, to be loaded from their
+        * own url by any worker, and added to <code>links</code>. On the others it executes a
+        * simulated HtmlUnit click action, then passes the new current page to
+        * <code> crawl(HtmlPage page)</code>. See <code>toClick()</code>.</p>
+        *
+        * <p>When the new page is traversed, its own clickable items are explored before
+        * returning to those of the page we came from, as recursion used to do, but the
+        * pages in progress are kept in the <code>routes</code> stack. A page clicked through
+        * is done once all of its own have been explored, so that a crawl killed meanwhile
+        * and resumed clicks through it again.</p>
+        *
+        * <p>Returns how many clickable items of <code>page</code> itself had to be clicked.</p>
+        */
+        private int visitDynamicLinks (HtmlPage page, String pageUrl, Set<String> links) {
+
+            // The clickable items still to visit, for each page we have clicked through, and
+            // the urls of those pages. page itself is done by our caller
+            Deque<Iterator<?>> routes = new ArrayDeque<Iterator<?>>();
+            Deque<String> routeUrls = new ArrayDeque<String>();
+            List<?> pageClickables = toClick(getClickables(page, pageUrl), pageUrl, links);
+            routes.push(pageClickables.iterator());
+
+            // Now here we click on the dynamic content, return via "Back" and keep collecting static content
+            while (routes.isEmpty() == false) {
+                Iterator<?> clickables = routes.peek();
+                if (clickables.hasNext() == false) {
+                    routes.pop();
+                    if (routeUrls.isEmpty() == false) { site.tracker.addDone(routeUrls.pop()); }
+                    continue;
+                }
+                Object i = clickables.next();
+                printlnT(() -> "HtmlUnit browser getting page via simulated click of " + i.toString());
+                HtmlPage newPage;
+                Metrics.PhaseEvent click = Metrics.begin(Metrics.Phase.CLICK);
+                try { newPage = ((DomElement) i).click(); }
+                catch (Exception e) {
+                    System.err.println("Click action on " + i.toString() + " failed. Skipping it");
+                    if (verbose) { e.printStackTrace(); }
+                    continue;
+                }
+                finally { metrics.end(click, pageUrl); }
+                // Crawl the new page we have arrived at! And then its own dynamic links
+                routesClicked.incrementAndGet();
+                if (crawl (newPage) == true) {
+                    String newUrl = canonicalUrl(newPage);
+                    routes.push(toClick(getClickables(newPage, newUrl), newUrl, null).iterator());
+                    routeUrls.push(newUrl);
+                }
+            }
+            return pageClickables.size();
+        } // End visitDynamicLinks
+
+       /**
+        * <p>toClick sorts the <code>clickables</code> of the page at <code>pageUrl</code>. Those
+        * leading to a route given literally, i.e. changeRoute('/about'), are queued in the
+        * frontier by the route's url, unless --click-routes, and added to <code>links</code> if
+        * not null. Returns the others, which have to be clicked to know where they lead.</p>
+        *
+        * <p>Routes are taken once per crawl, so a navigation bar repeated on every page is
+        * followed once. Clicks are taken once per page.</p>
+        */
+        private List<?> toClick (List<?> clickables, String pageUrl, Set<String> links) {
+            List<Object> click = new ArrayList<Object>();
+            List<String> targets = new ArrayList<String>();
+            for (Object i : clickables) {
+                String expression = ((DomElement) i).getAttribute("ng-click");
+                String target = (config.clickRoutes == false) ? routeTarget(expression, pageUrl) : null;
+                if (target != null) {
+                    if (site.contains(target) == false) { continue; }
+                    if (links != null) { links.add(target); }
+                    if (site.routesSeen.add(target) == true) { targets.add(target); }
+                    else { routesRepeated.incrementAndGet(); }
+                } else if (site.routesSeen.add(pageUrl + " " + expression) == true) {
+                    click.add(i);
+                } else {
+                    routesRepeated.incrementAndGet();
+                }
+            }
+            printlnT(() -> MARGIN + targets.size() + " routes to load by url, " + click.size() + " to click");
+            routesQueued.addAndGet(targets.size());
+            queueLinks(site, targets, link.depth + 1, 0, null);
+            return click;
+        } // end toClick
+
+    } // end class Worker
+
+   /**
+    * getClickables returns the elements of the current page that are hooks for
+    * dynamic links.
+    */
+    private List<?> getClickables (HtmlPage page, String pageUrl) {
+
+        // >>> Future upgrades! Here more logic could be added for buttons, RoR dynamic content, ASP, etc... *****/
+
+        // Now get list of all elements that Angular uses for clickable dynamic links
+        Metrics.PhaseEvent routes = Metrics.begin(Metrics.Phase.ROUTES);
+        final List<?> clickables = page.getByXPath("//*[contains(@ng-click,'changeRoute')]");
+        metrics.end(routes, pageUrl);
+        printlnT(() -> "At: " + pageUrl);
+        printlnT(() -> "elements w/ dynamic click hooks: " + clickables.size());
+        clickables.forEach((i) -> { printlnT(() -> i.toString());});
+        printlnT(() -> "-------------------------");
+        return clickables;
+    } // end getClickables
+
+   /**
+    * routeTarget reads the route an ng-click <code>expression</code>, in the page at
+    * <code>pageUrl</code>, leads to. Returns its url, or null if the route is not given
+    * literally, i.e. changeRoute(item.link), or is not an http(s) one.
+    */
+    static String routeTarget (String expression, String pageUrl) {
+        Matcher m = routeP.matcher(expression);
+        if (m.find() == false) { return null; }
+        return UrlCanon.route(pageUrl, (m.group(1) != null) ? m.group(1) : m.group(2));
+    } // end routeTarget
+
+   /**
+    * The UrlTracker class encapsulates the urls that that have already been visited, 
+    * the urls where we have errored out, and the urls already handed to the frontier.
+    * All are kept as states of one <code>UrlIndex</code>, shared by all workers of a site.
+    * Each <code>Site</code> has its own.
+    */
+    static class UrlTracker {
+
+        // Fingerprints of every url we have queued, crawled, or errored out on
+        final UrlIndex urls;
+
+        // How many urls were visited, or errored out
+        final AtomicInteger visitedCount = new AtomicInteger();
+        final AtomicInteger erroredCount = new AtomicInteger();
+        final AtomicInteger skippedCount = new AtomicInteger(); // Not crawled, their url template closed
+
+        // The log of this crawl, null if none
+        CrawlLog crawlLog;
+
+        // Where urls visited, or errored out on, are published, null if nowhere
+        BiConsumer<CrawlEvent.Kind, String> events;
+
+
+       /**
+        * Build a tracker with the options of the crawl
+        */
+        UrlTracker (boolean offHeap, long bloomExpected) {
+            urls = new UrlIndex(INDEX_CAPACITY, offHeap, bloomExpected);
+        }
+
+       /**
+        * Call addVisited() when needing to indicate that String url has been visited. 
+        * Returns false if it had been visited, or errored out, already.
+        */
+        private boolean addVisited (String url) {
+            // Mark the url as visited
+            if (urls.advance(url, UrlIndex.VISITED) == false) { return false; }
+            visitedCount.incrementAndGet();
+            if (crawlLog != null) { crawlLog.append(CrawlLog.VISITED, url); }
+            if (events != null) { events.accept(CrawlEvent.Kind.PAGE, url); }
+            return true;
+        }
+
+       /**
+        * Call addDone() once all links of String url have been queued or visited, so that
+        * a resumed crawl does not crawl it again.
+        */
+        private void addDone (String url) {
+            if (crawlLog != null) { crawlLog.append(CrawlLog.DONE, url); }
+        }
+
+       /**
+        * Call addSkipped() when String url will not be crawled, as its url template is closed,
+        * so that it is neither queued again nor, by a resumed crawl, crawled after all.
+        */
+        private void addSkipped (String url) {
+            if (urls.advance(url, UrlIndex.VISITED) == false) { return; }
+            skippedCount.incrementAndGet();
+            if (crawlLog != null) { crawlLog.append(CrawlLog.DONE, url); }
+        }
+
+       /**
+        * Call restore() to put String url back in a state read from the crawl log
+        */
+        private void restore (String url, int state) {
+            if (urls.advance(url, state) == false) { return; }
+            if (state == UrlIndex.VISITED) { visitedCount.incrementAndGet(); }
+            if (state == UrlIndex.ERRORED) { erroredCount.incrementAndGet(); }
+        }
+
+       /**
+        * Call addScheduled() before offering String url to the frontier. Returns false if
+        * url was already offered, or has been visited, and so should not be queued again.
+        */
+        private boolean addScheduled (String url) {
+            if (urls.advance(url, UrlIndex.SCHEDULED) == false) { return false; }
+            if (crawlLog != null) { crawlLog.append(CrawlLog.PENDING, url); }
+            return true;
+        }
+
+       /**
+        * Call addErrored() when needing to indicate that visiting String url resulted in
+        * an error. This url should not be visited nor marked as reachable in the future
+        */
+        private boolean addErrored (String url) {
+            printlnV(() -> "Adding to Error List. Could not successfully visit: " + url);
+            if (urls.advance(url, UrlIndex.ERRORED) == false) { return false; }
+            erroredCount.incrementAndGet();
+            if (crawlLog != null) { crawlLog.append(CrawlLog.ERRORED, url); }
+            if (events != null) { events.accept(CrawlEvent.Kind.ERROR, url); }
+            return true;
+        }
+
+       /**
+        * Call hasBeenVisited() if wanting to figure out if this URL has been visited
+        * either successfully, or even if we got an error
+        */
+        private boolean hasBeenVisited(String url) {
+            return (urls.state(url) >= UrlIndex.VISITED);
+        } 
+
+       /**
+        * Print the class contents in a nice fashion
+        */
+        String summary() {
+            return ("distinct urls visited: " + visitedCount.get() + ", errorer out: " 
+                + erroredCount.get());
+        } 
+
+
+    } //end class UrlTracker
+
+} // end class Crawler
\ No newline at end of file
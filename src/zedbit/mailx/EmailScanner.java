@@ -0,0 +1,182 @@
+package zedbit.mailx;
+
+
+/**
+ * <p>EmailScanner finds emails inside text that may hold other text, even other emails.
+ * It looks for each '@' and uses it as a pivot: from there it expands left over the chars
+ * RFC 5322 allows in a local part, and right over the labels of a domain, and reports the
+ * mailbox if both sides hold up.</p>
+ *
+ * <p>The scan runs over the chars in place: it does not split the text nor copy it, and only
+ * a found email costs the caller a String, if it asks for one. Letters and digits outside
+ * ascii are accepted on both sides, as internationalized emails have them.</p>
+ *
+ * <p>Some leeway is taken from the RFC where pages differ from mail headers: a local part
+ * does not start with punctuation, which keeps quotes and brackets around an email out of it,
+ * and a domain must end in an alphabetic top level label that is not a file extension, which
+ * keeps names such as logo@2x.png out of the results.</p>
+ *
+ * @author Manuel Mendez
+ */
+class EmailScanner {
+
+    // RFC 5321 limits, for the local part and the domain
+    static final int MAX_LOCAL = 64;
+    static final int MAX_DOMAIN = 253;
+
+    // Punctuation RFC 5322 allows in an atom, besides letters and digits
+    static final String ATEXT_SPECIALS = "!#$%&'*+-/=?^_`{|}~";
+
+    // Top level "domains" that are really file extensions
+    static final String[] FILE_EXTENSIONS = {
+        "png", "jpg", "jpeg", "gif", "svg", "webp", "ico", "bmp", "css", "js", "json", "html", "htm", "php" };
+
+   /**
+    * Listener is told of each email found, as the range [start, end) of the text scanned
+    */
+    interface Listener {
+        void found(CharSequence text, int start, int end);
+    }
+
+
+   /**
+    * Scan all of <code>text</code> for emails, telling <code>listener</code> of each.
+    * Returns how many were found.
+    */
+    static int scan(CharSequence text, Listener listener) {
+        return scan(text, 0, text.length(), listener);
+    }
+
+   /**
+    * Scan the range [from, to) of <code>text</code> for emails, telling <code>listener</code>
+    * of each. Returns how many were found.
+    */
+    static int scan(CharSequence text, int from, int to, Listener listener) {
+        int found = 0;
+        int floor = from; // An email never reaches left of the end of the previous one
+        for (int at = from; at < to; at++) {
+            if (text.charAt(at) != '@') { continue; }
+
+            int start = localStart(text, floor, at);
+            if (start < 0) { continue; }
+            int end = domainEnd(text, at, to);
+            if (end < 0) { continue; }
+
+            listener.found(text, start, end);
+            found++;
+            floor = end;
+            at = end - 1;
+        }
+        return found;
+    } // end scan
+
+   /**
+    * Expand left from the '@' at <code>at</code> over a local part, either a dot-atom or a
+    * quoted string. Returns where it starts, or -1 if there is no valid local part.
+    */
+    private static int localStart(CharSequence text, int floor, int at) {
+        if (at == floor) { return -1; }
+
+        // A quoted local part, i.e. "john doe"@example.com
+        if (text.charAt(at - 1) == '"') {
+            for (int i = at - 2; i >= floor && at - i <= MAX_LOCAL + 2; i--) {
+                char c = text.charAt(i);
+                if (c == '"' && (i == floor || text.charAt(i - 1) != '\\')) {
+                    return (at - i > 2) ? i : -1;
+                }
+                if (c == '\r' || c == '\n') { return -1; }
+            }
+            return -1;
+        }
+
+        // A dot-atom: atoms separated by single dots, not ending with a dot. Scanned whole,
+        // as a run longer than MAX_LOCAL is no local part, rather than cut to its last chars
+        if (text.charAt(at - 1) == '.') { return -1; }
+        int start = at;
+        for (int i = at - 1; i >= floor; i--) {
+            char c = text.charAt(i);
+            if (isAtext(c)) { start = i; }
+            else if (c == '.' && i > floor && isAtext(text.charAt(i - 1))) { start = i; }
+            else { break; }
+        }
+
+        // But not starting with punctuation, nor with a dot
+        while (start < at && Character.isLetterOrDigit(text.charAt(start)) == false) { start++; }
+        return (start < at && at - start <= MAX_LOCAL) ? start : -1;
+    } // end localStart
+
+   /**
+    * Expand right from the '@' at <code>at</code> over a domain of at least two labels.
+    * Returns where it ends, or -1 if there is no valid domain.
+    */
+    private static int domainEnd(CharSequence text, int at, int to) {
+        int labels = 0;
+        int end = -1; // End of the last complete label
+        int labelStart = at + 1;
+        int i = labelStart;
+        while (i < to && i - at <= MAX_DOMAIN) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c) || (c == '-' && i > labelStart)) {
+                i++;
+                continue;
+            }
+            if (c == '.' && i > labelStart && text.charAt(i - 1) != '-') {
+                labels++;
+                end = i;
+                labelStart = ++i;
+                continue;
+            }
+            break;
+        }
+
+        // The last label, unless the domain ended in a dot, i.e. at the end of a sentence.
+        // A top level label has no hyphen, so one ends it, as in sales@acme.com-or-call
+        int last = labelStart;
+        while (last < i && text.charAt(last) != '-') { last++; }
+        if (last > labelStart) {
+            labels++;
+            end = last;
+        } else {
+            labelStart = lastLabelStart(text, at, end);
+        }
+        if (labels < 2 || end < 0) { return -1; }
+
+        // A top level label: two or more letters, and not a file extension
+        if (end - labelStart < 2) { return -1; }
+        for (int j = labelStart; j < end; j++) {
+            if (Character.isLetter(text.charAt(j)) == false) { return -1; }
+        }
+        if (isFileExtension(text, labelStart, end)) { return -1; }
+        return end;
+    } // end domainEnd
+
+   /**
+    * Is the label [start, end) one of FILE_EXTENSIONS? Compared in place, ignoring case
+    */
+    private static boolean isFileExtension(CharSequence text, int start, int end) {
+        for (String extension : FILE_EXTENSIONS) {
+            if (extension.length() != end - start) { continue; }
+            int j = 0;
+            while (j < extension.length() && Character.toLowerCase(text.charAt(start + j)) == extension.charAt(j)) { j++; }
+            if (j == extension.length()) { return true; }
+        }
+        return false;
+    }
+
+   /**
+    * Where the label ending at <code>end</code> starts
+    */
+    private static int lastLabelStart(CharSequence text, int at, int end) {
+        int i = end;
+        while (i > at + 1 && text.charAt(i - 1) != '.') { i--; }
+        return i;
+    }
+
+   /**
+    * Is c allowed in an atom of a local part?
+    */
+    private static boolean isAtext(char c) {
+        return Character.isLetterOrDigit(c) || ATEXT_SPECIALS.indexOf(c) >= 0;
+    }
+
+} // end class EmailScanner
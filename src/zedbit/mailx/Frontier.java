@@ -0,0 +1,348 @@
+package zedbit.mailx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * <p>Frontier holds the static links that have been discovered but not yet crawled. It is
+ * shared by all of Mailx's workers, which take links from it and offer back the new links
+ * they find, replacing the recursion formerly done by <code>crawl()</code>.</p>
+ *
+ * <p>Links are handed out best first, by the score <code>LinkScore</code> gave them when
+ * they were found, and in the order they were found when they score alike. The crawl is
+ * complete once the queue is empty and no worker is busy with a link, as only a busy worker
+ * could offer new links. <code>take()</code> then returns null to every worker.</p>
+ *
+ * <p>A crawl may also be given a budget, of pages taken or of time. Once it is spent, or
+ * the crawl is stopped, <code>take()</code> returns null to every worker too, leaving the
+ * links still queued uncrawled, and the workers finish the pages they have.</p>
+ *
+ * <p>Links to retry are held back in a delay queue until their time comes, and count as
+ * pending meanwhile, so the crawl does not end before they are retried.</p>
+ *
+ * <p>Past <code>memory</code> links, new links spill to temporary files, one per band of
+ * <code>BAND</code> points of score, and keep spilling until the files are empty again, so
+ * that they are not passed by links offered later. The queue is refilled from the best band
+ * first, half of <code>memory</code> at a time as workers drain it, and a link at a time
+ * whenever the best band on disk beats the head of the queue. Links on disk are thus handed
+ * out best first to within a band, in the order they were spilled within it, and count as
+ * pending too.</p>
+ *
+ * @author Manuel Mendez
+ */
+class Frontier {
+
+    // How long a worker blocks on an empty queue before checking if the crawl is over (mS)
+    static final int POLL_WAIT = 100;
+
+    // Points of score spilled to the same file
+    static final int BAND = 10;
+
+    // The links waiting to be crawled, best first
+    private final BlockingQueue<Link> queue = new PriorityBlockingQueue<Link>();
+
+    // The links to retry later, each once its delay expires
+    private final DelayQueue<Later> later = new DelayQueue<Later>();
+
+    // Links queued, or to retry, plus links being crawled by a worker. Zero means we are done
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong order = new AtomicLong(); // Of links offered, breaking ties in score
+
+    private final int memory; // Most links queued in memory, 0 if no limit
+    private final TreeMap<Integer, Spill> bands = new TreeMap<Integer, Spill>(); // The links past memory, by band of score
+    private volatile int bestBand = Integer.MIN_VALUE; // The best band on disk, if any
+    private final AtomicInteger spilled = new AtomicInteger(); // Links on disk right now
+    private int spills; // Links ever written to disk
+
+    // The budget of the crawl
+    private final int maxPages; // Most links handed out, 0 if no limit
+    private final long deadline; // In nanoTime, when no more links are handed out, 0 if never
+    private final AtomicInteger taken = new AtomicInteger(); // Links handed out so far
+    private volatile boolean spent; // Has the budget run out?
+
+
+   /**
+    * Build a frontier holding at most <code>memory</code> links in memory, or all of them
+    * if 0, and handing out at most <code>maxPages</code> links, until <code>deadline</code>,
+    * either being 0 if there is no such limit
+    */
+    Frontier(int memory, int maxPages, long deadline) {
+        this.memory = memory;
+        this.maxPages = maxPages;
+        this.deadline = deadline;
+    }
+
+   /**
+    * Call offer() to queue a link for crawling, <code>depth</code> hops from the start page,
+    * scoring <code>score</code>. Callers are expected to have checked with
+    * <code>UrlTracker</code> that the link is new.
+    */
+    void offer(String url, int depth, int score) {
+        pending.incrementAndGet();
+        Link link = new Link(url, depth, score, order.getAndIncrement());
+        if (memory == 0) {
+            queue.add(link);
+            return;
+        }
+        synchronized (this) {
+            // Keep to memory while the files are empty, lest links be crawled out of order.
+            // Checked under the lock, so that workers offering at once cannot pass memory
+            if (spilled.get() == 0 && queue.size() < memory) {
+                queue.add(link);
+                return;
+            }
+            try {
+                int band = band(score);
+                Spill spill = bands.get(band);
+                if (spill == null) {
+                    spill = new Spill();
+                    bands.put(band, spill);
+                    bestBand = bands.lastKey();
+                }
+                spill.write(link);
+                spilled.incrementAndGet();
+                spills++;
+            } catch (IOException e) {
+                System.err.println("Cannot spill the frontier to disk, keeping " + url + " in memory! " + e.toString());
+                queue.add(link);
+            }
+        }
+    } // end offer
+
+   /**
+    * Call offerLater() to queue a link again, for crawling in <code>delay</code> mS
+    */
+    void offerLater(Link link, long delay) {
+        pending.incrementAndGet();
+        later.add(new Later(link, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
+    }
+
+   /**
+    * take() returns the next link to crawl, blocking while other workers might still
+    * produce some. Returns null once the crawl is complete, or its budget spent. Every
+    * link returned must be matched by a call to <code>done()</code>.
+    */
+    Link take() throws InterruptedException {
+        while (true) {
+            if (spent == true) { return null; }
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                spent = true;
+                return null;
+            }
+            Later due;
+            while ((due = later.poll()) != null) { queue.add(due.link); }
+            if (spilled.get() > 0 && (queue.size() <= memory / 2 || spilledBeatsHead() == true)) { refill(); }
+            Link link = queue.poll(POLL_WAIT, TimeUnit.MILLISECONDS);
+            if (link != null) {
+                if (maxPages != 0 && taken.incrementAndGet() > maxPages) {
+                    // Left queued, and pending, as are all others
+                    queue.add(link);
+                    spent = true;
+                    return null;
+                }
+                return link;
+            }
+            if (pending.get() == 0) { return null; }
+        }
+    } // end take
+
+   /**
+    * Call done() when a worker has finished with a link returned by <code>take()</code>,
+    * after any new links found there have been offered.
+    */
+    void done() {
+        pending.decrementAndGet();
+    }
+
+   /**
+    * The band of <code>score</code>
+    */
+    private static int band(int score) {
+        return Math.floorDiv(score, BAND);
+    }
+
+   /**
+    * Does the best band on disk score better than the link at the head of the queue?
+    */
+    private boolean spilledBeatsHead() {
+        Link head = queue.peek();
+        return head == null || bestBand > band(head.score);
+    }
+
+   /**
+    * Move links back from disk to memory, best band first, up to half of
+    * <code>memory</code>, or one if the queue holds that many already
+    */
+    private synchronized void refill() {
+        try {
+            int n = Math.min(spilled.get(), Math.max(1, memory / 2 - queue.size()));
+            for (int i = 0; i < n && bands.isEmpty() == false; i++) {
+                Map.Entry<Integer, Spill> best = bands.lastEntry();
+                queue.add(best.getValue().read());
+                spilled.decrementAndGet();
+                if (best.getValue().size() == 0) {
+                    best.getValue().delete();
+                    bands.remove(best.getKey());
+                }
+            }
+        } catch (IOException e) {
+            // Links lost cannot be crawled; let the crawl end without them
+            System.err.println("Cannot read the frontier back from disk, dropping " + spilled.get() + " links! " + e.toString());
+            pending.addAndGet(-spilled.getAndSet(0));
+            bands.values().forEach(Spill::delete);
+            bands.clear();
+        }
+        bestBand = bands.isEmpty() ? Integer.MIN_VALUE : bands.lastKey();
+    } // end refill
+
+   /**
+    * How many links are waiting or being crawled
+    */
+    int size() {
+        return pending.get();
+    }
+
+   /**
+    * Did the crawl stop because its budget was spent?
+    */
+    boolean spent() {
+        return spent;
+    }
+
+   /**
+    * Spend the budget now: no more links are handed out, as if it had run out
+    */
+    void stop() {
+        spent = true;
+    }
+
+   /**
+    * How many links were ever spilled to disk
+    */
+    synchronized int spills() {
+        return spills;
+    }
+
+   /**
+    * Delete the spill files, if any. The frontier is not to be used afterwards.
+    */
+    synchronized void close() {
+        bands.values().forEach(Spill::delete);
+        bands.clear();
+        bestBand = Integer.MIN_VALUE;
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * Link is an url waiting in the frontier, with how many hops from the start page it was
+    * found and its score. Higher scores come first, then links offered earlier.
+    */
+    static class Link implements Comparable<Link> {
+        final String url;
+        final int depth;
+        final int score;
+        final long order;
+
+        Link(String url, int depth, int score, long order) {
+            this.url = url;
+            this.depth = depth;
+            this.score = score;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Link other) {
+            if (score != other.score) { return Integer.compare(other.score, score); }
+            return Long.compare(order, other.order);
+        }
+    } // end class Link
+
+   /**
+    * Later is a link to retry at <code>at</code>, in nanoTime
+    */
+    private static class Later implements Delayed {
+        final Link link;
+        final long at;
+
+        Later(Link link, long at) {
+            this.link = link;
+            this.at = at;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(at - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(at, ((Later) other).at);
+        }
+    } // end class Later
+
+   /**
+    * Spill is the file links of one band past <code>memory</code> are appended to and read
+    * back from, in order. It is deleted once all has been read back.
+    */
+    private static class Spill {
+        private final Path file;
+        private DataOutputStream out;
+        private DataInputStream in; // Null until the first read
+        private int size; // Links written and not read back yet
+
+        Spill() throws IOException {
+            file = Files.createTempFile("mailx-frontier", ".spill");
+            file.toFile().deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        }
+
+        void write(Link link) throws IOException {
+            out.writeUTF(link.url);
+            out.writeInt(link.depth);
+            out.writeInt(link.score);
+            out.writeLong(link.order);
+            size++;
+        }
+
+        Link read() throws IOException {
+            out.flush(); // A no-op unless links were written since the last read
+            if (in == null) { in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))); }
+            Link link = new Link(in.readUTF(), in.readInt(), in.readInt(), in.readLong());
+            size--;
+            return link;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void delete() {
+            try {
+                if (in != null) { in.close(); }
+                out.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // deleteOnExit() will have another go
+            }
+        }
+    } // end class Spill
+
+} // end class Frontier
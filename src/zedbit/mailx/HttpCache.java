@@ -0,0 +1,264 @@
+package zedbit.mailx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebResponseData;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+
+
+/**
+ * <p>HttpCache keeps the responses a crawl received on disk, so that the next crawl of the
+ * same site can ask the server whether they changed. It is installed in each worker's
+ * WebClient as a WebConnection wrapper: every GET for which a response with an ETag or a
+ * Last-Modified header is on disk is sent with If-None-Match and If-Modified-Since, and when
+ * the server answers 304 Not Modified, the response on disk is handed to HtmlUnit instead.</p>
+ *
+ * <p>For pages, the cache also keeps what the crawl found in them, the emails and the links,
+ * once the page is processed. A page that comes back 304 with its findings on disk needs no
+ * DOM nor JavaScript at all: the findings are reused as they are.</p>
+ *
+ * <p>Entries are files named after the fingerprint of their url, written whole to a
+ * temporary file and then moved in place, so a crash never leaves a torn entry.</p>
+ *
+ * @author Manuel Mendez
+ */
+class HttpCache {
+
+    // Marks a response served from disk after a 304, for the crawler to notice
+    static final String NOT_MODIFIED_HEADER = "X-Mailx-Not-Modified";
+
+    // Format of an entry file
+    static final int MAGIC = 0x4D4C5843; // "MLXC"
+
+    private final Path dir;
+
+    // What the cache did
+    final AtomicInteger notModified = new AtomicInteger(); // 304s answered from disk
+    final AtomicInteger stored = new AtomicInteger(); // Responses written to disk
+    final AtomicInteger reused = new AtomicInteger(); // Pages whose findings were reused
+
+
+   /**
+    * Build a cache keeping its entries in directory <code>dir</code>
+    */
+    HttpCache(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+   /**
+    * Install the cache in <code>webClient</code>, between it and its connection
+    */
+    void install(WebClient webClient) {
+        new CachingWebConnection(webClient);
+    }
+
+   /**
+    * Was this response served from disk, as the server said it was not modified?
+    */
+    static boolean isNotModified(WebResponse response) {
+        return response.getResponseHeaderValue(NOT_MODIFIED_HEADER) != null;
+    }
+
+   /**
+    * The entry of <code>url</code>, or null if none is on disk
+    */
+    Entry read(String url) {
+        Path file = fileOf(url);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) { return null; }
+            Entry entry = new Entry();
+            entry.url = in.readUTF();
+            if (entry.url.equals(url) == false) { return null; } // Another url with the same fingerprint
+            entry.status = in.readInt();
+            entry.statusMessage = in.readUTF();
+            int headers = in.readInt();
+            for (int i = 0; i < headers; i++) { entry.headers.add(new NameValuePair(in.readUTF(), in.readUTF())); }
+            entry.body = new byte[in.readInt()];
+            in.readFully(entry.body);
+            if (in.readBoolean() == true) {
+                entry.emails = readList(in);
+                entry.links = readList(in);
+            }
+            return entry;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            Crawler.printlnT(() -> "Cache entry for " + url + " unreadable, ignoring it: " + e.toString());
+            return null;
+        }
+    } // end read
+
+   /**
+    * Keep with the entry of page <code>url</code> the emails and links found in it, if
+    * the page has an entry
+    */
+    void remember(String url, List<String> emails, Collection<String> links) {
+        Entry entry = read(url);
+        if (entry == null) { return; }
+        entry.emails = new ArrayList<String>(emails);
+        entry.links = new ArrayList<String>(links);
+        write(entry);
+    }
+
+   /**
+    * Print what the cache did in a nice fashion
+    */
+    String summary() {
+        return ("Cache: " + notModified.get() + " responses not modified, " + reused.get()
+            + " pages reused without processing, " + stored.get() + " responses stored");
+    }
+
+    private void write(Entry entry) {
+        Path file = fileOf(entry.url);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), "entry", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(entry.url);
+                out.writeInt(entry.status);
+                out.writeUTF(entry.statusMessage);
+                out.writeInt(entry.headers.size());
+                for (NameValuePair header : entry.headers) {
+                    out.writeUTF(header.getName());
+                    out.writeUTF(header.getValue());
+                }
+                out.writeInt(entry.body.length);
+                out.write(entry.body);
+                out.writeBoolean(entry.emails != null);
+                if (entry.emails != null) {
+                    writeList(out, entry.emails);
+                    writeList(out, entry.links);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Crawler.printlnT(() -> "Cannot write cache entry for " + entry.url + ": " + e.toString());
+        }
+    } // end write
+
+   /**
+    * Entries are spread over 256 directories, by the first byte of their fingerprint
+    */
+    private Path fileOf(String url) {
+        String name = String.format("%016x", UrlIndex.fingerprint(url));
+        return dir.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private static List<String> readList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> list = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) { list.add(in.readUTF()); }
+        return list;
+    }
+
+    private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (String s : list) { out.writeUTF(s); }
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * Entry is a response on disk, and the findings of its page if processed
+    */
+    static class Entry {
+        String url;
+        int status;
+        String statusMessage;
+        final List<NameValuePair> headers = new ArrayList<NameValuePair>();
+        byte[] body;
+        List<String> emails; // Null until the page is processed
+        List<String> links;
+
+        String header(String name) {
+            for (NameValuePair header : headers) {
+                if (header.getName().equalsIgnoreCase(name)) { return header.getValue(); }
+            }
+            return null;
+        }
+    }
+
+   /**
+    * <p>CachingWebConnection makes GETs conditional on what is on disk, answers 304s from
+    * disk, and stores the responses that carry validators.</p>
+    */
+    private class CachingWebConnection extends WebConnectionWrapper {
+
+        CachingWebConnection(WebClient webClient) {
+            super(webClient);
+        }
+
+        @Override
+        public WebResponse getResponse(WebRequest request) throws IOException {
+            if (request.getHttpMethod() != HttpMethod.GET) { return super.getResponse(request); }
+
+            final String url = request.getUrl().toString();
+            Entry cached = read(url);
+            if (cached != null) {
+                String etag = cached.header("ETag");
+                String lastModified = cached.header("Last-Modified");
+                if (etag != null) { request.setAdditionalHeader("If-None-Match", etag); }
+                if (lastModified != null) { request.setAdditionalHeader("If-Modified-Since", lastModified); }
+            }
+
+            WebResponse response = super.getResponse(request);
+            if (response.getStatusCode() == 304 && cached != null) {
+                notModified.incrementAndGet();
+                List<NameValuePair> headers = new ArrayList<NameValuePair>(cached.headers);
+                headers.add(new NameValuePair(NOT_MODIFIED_HEADER, "true"));
+                WebResponseData data = new WebResponseData(cached.body, cached.status, cached.statusMessage, headers);
+                return new WebResponse(data, request, response.getLoadTime());
+            }
+            if (response.getStatusCode() == 200
+                && (response.getResponseHeaderValue("ETag") != null || response.getResponseHeaderValue("Last-Modified") != null)) {
+                Entry entry = new Entry();
+                entry.url = url;
+                entry.status = response.getStatusCode();
+                entry.statusMessage = response.getStatusMessage();
+                // The body is kept as HtmlUnit hands it to us, decoded
+                for (NameValuePair header : response.getResponseHeaders()) {
+                    if (header.getName().equalsIgnoreCase("Content-Encoding") || header.getName().equalsIgnoreCase("Content-Length")) { continue; }
+                    entry.headers.add(header);
+                }
+                try (InputStream body = response.getContentAsStream()) {
+                    entry.body = readAll(body);
+                }
+                write(entry);
+                stored.incrementAndGet();
+            }
+            return response;
+        } // end getResponse
+
+        private byte[] readAll(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) { out.write(buffer, 0, n); }
+            return out.toByteArray();
+        }
+
+    } // end class CachingWebConnection
+
+} // end class HttpCache
@@ -0,0 +1,421 @@
+package zedbit.mailx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+
+
+/**
+ * <p>HttpFastPath fetches a page with plain HTTP, without HtmlUnit, and scans it in one
+ * streaming pass for text that might hold emails and for the hrefs of its anchors and
+ * links. No DOM is built, no CSS is processed and no script is run.</p>
+ *
+ * <p>While scanning, the page is checked for dynamic hooks: the ng-click "changeRoute"
+ * elements that <code>visitDynamicLinks()</code> clicks, Angular or ui-router views, and
+ * scripts that define routes or load data. A page with any of them is reported as dynamic, and is to be
+ * crawled by HtmlUnit instead, as the fast path cannot see what its scripts would do.</p>
+ *
+ * <p>One HttpFastPath, with its pool of connections, is shared by all workers.</p>
+ *
+ * @author Manuel Mendez
+ */
+class HttpFastPath {
+
+    // Same timeout as the HtmlUnit browser (mS)
+    static final int TIMEOUT = 5000;
+
+    // Text longer than this is handed out in pieces, split at whitespace (chars)
+    static final int MAX_TEXT = 64 * 1024;
+
+    // Elements whose attributes show the page is driven by scripts: the clickables
+    // visitDynamicLinks() looks for, and the placeholders where routers render views
+    static final Pattern dynamicTagP = Pattern.compile(
+        "ng-click\\s*=\\s*[\"'][^\"']*changeRoute|\\b(data-)?(ng-view|ui-view|ng-include)\\b", Pattern.CASE_INSENSITIVE);
+
+    // Scripts that set up client side routes
+    static final Pattern scriptRouteP = Pattern.compile(
+        "\\$routeProvider|\\$stateProvider|history\\.pushState|['\"]ngRoute['\"]|['\"]ui\\.router['\"]");
+
+    // Scripts that load data, whose responses only the browser's TextScanner sees
+    static final Pattern scriptXhrP = Pattern.compile(
+        "XMLHttpRequest|\\bfetch\\s*\\(|\\$http\\b|\\$\\.(ajax|get|getJSON|post)\\s*\\(");
+
+    // The href attribute of a tag, quoted or not
+    static final Pattern hrefP = Pattern.compile(
+        "\\shref\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))", Pattern.CASE_INSENSITIVE);
+
+    // Character references we decode in text, so that emails written as &#64; are found
+    static final Pattern entityP = Pattern.compile("&(#[0-9]{1,7}|#[xX][0-9a-fA-F]{1,6}|amp|lt|gt|quot|apos|nbsp);");
+
+    private final CloseableHttpClient httpClient;
+    private final Politeness politeness; // Null if none
+    private final TextScanner texts; // Null if only html is searched
+
+
+   /**
+    * Build the fast path with enough pooled connections for <code>workers</code> workers,
+    * sending requests as <code>politeness</code>, if not null, allows. Responses that are
+    * not html are searched by <code>texts</code>, unless null.
+    */
+    HttpFastPath(int workers, Politeness politeness, TextScanner texts) {
+        this.politeness = politeness;
+        this.texts = texts;
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(workers * 2);
+        connections.setDefaultMaxPerRoute(workers);
+
+        // As the HtmlUnit browser, we do not follow redirects
+        RequestConfig config = RequestConfig.custom()
+            .setConnectTimeout(TIMEOUT)
+            .setConnectionRequestTimeout(TIMEOUT)
+            .setSocketTimeout(TIMEOUT)
+            .setRedirectsEnabled(false)
+            .build();
+
+        httpClient = HttpClients.custom()
+            .setConnectionManager(connections)
+            .setDefaultRequestConfig(config)
+            .setUserAgent(BrowserVersion.FIREFOX_38.getUserAgent())
+            .build();
+    }
+
+   /**
+    * Fetch <code>pageUrl</code> and scan it. Throws IOException when the page cannot be
+    * fetched, as HtmlUnit's getPage() would.
+    */
+    Result fetch(String pageUrl) throws IOException {
+        return read(Politeness.get(httpClient, pageUrl, politeness), pageUrl);
+    } // end fetch
+
+   /**
+    * Scan the body of <code>response</code>, from <code>pageUrl</code>, then release it.
+    * Text that is not html is searched as it streams in, by <code>TextScanner</code>.
+    */
+    private Result read(CloseableHttpResponse response, String pageUrl) throws IOException {
+        try {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) { return new Result(); }
+
+            ContentType type = ContentType.getLenient(entity);
+            String mimeType = (type != null) ? type.getMimeType() : null;
+            Charset charset = (type != null) ? type.getCharset() : null;
+            TextScanner.Kind kind = (texts != null) ? TextScanner.kind(mimeType, pageUrl) : null;
+            try (InputStream body = entity.getContent()) {
+                if (kind == null) { return scan(body, mimeType, charset); }
+                Result result = new Result();
+                result.text = true;
+                texts.scan(body, charset, kind, result.texts::add);
+                return result;
+            }
+        }
+        finally { response.close(); }
+    } // end read
+
+   /**
+    * Scan a <code>body</code> already fetched, of type <code>mimeType</code>, in
+    * <code>charset</code>. Either may be null if the server did not say.
+    */
+    static Result scan(InputStream body, String mimeType, Charset charset) throws IOException {
+        Result result = new Result();
+        if (mimeType == null) { mimeType = "text/html"; }
+        result.html = mimeType.equalsIgnoreCase("text/html") || mimeType.equalsIgnoreCase("application/xhtml+xml");
+        if (result.html == false) { return result; } // Only HtmlUnit's path knows what to do
+
+        Reader in = new InputStreamReader(body, (charset != null) ? charset : StandardCharsets.UTF_8);
+        new Scanner(result).scan(in);
+        return result;
+    } // end scan
+
+   /**
+    * Release the pooled connections
+    */
+    void close() {
+        try { httpClient.close(); }
+        catch (IOException e) {
+            // Nothing left to do with them anyway
+        }
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * Result holds what a fetch found: whether the page is html at all, whether it is
+    * dynamic, the pieces of text and comments with an '@' in them, and the hrefs, with the
+    * text of the first anchor of each.
+    */
+    static class Result {
+        boolean html;
+        boolean text; // Not html, but searched as text, its emails in texts
+        boolean dynamic;
+        final List<String> texts = new ArrayList<String>();
+        final List<String> hrefs = new ArrayList<String>();
+        final Map<String, String> anchors = new HashMap<String, String>(); // Text of an href's anchor, as found
+        String base; // The href of its <base>, if any
+        final PageDedup.Fingerprint print = new PageDedup.Fingerprint(); // Of all its text
+    }
+
+   /**
+    * <p>Scanner is a small streaming html tokenizer. It tells text from markup, comments,
+    * and the raw contents of scripts and styles, reading the page a buffer at a time.
+    * Only text and comments with an '@' are kept, and only the hrefs of anchors and links,
+    * but all text and comments go into the page's fingerprint.</p>
+    *
+    * <p>It is deliberately forgiving, as pages are: whatever it cannot make sense of is
+    * treated as text.</p>
+    */
+    private static class Scanner {
+
+        private enum State { TEXT, MARKUP, COMMENT, RAW }
+
+        private final Result result;
+        private final StringBuilder text = new StringBuilder(); // Current text, comment or raw contents
+        private final StringBuilder markup = new StringBuilder(); // Current tag, between '<' and '>'
+        private State state = State.TEXT;
+        private char quote; // Quote we are inside of in a tag, or 0
+        private String rawEnd; // End tag of the script or style we are in, i.e. "</script"
+        private String anchorHref; // Href of the anchor we are in, or null
+        private final StringBuilder anchorText = new StringBuilder(); // Its text so far
+
+        Scanner(Result result) {
+            this.result = result;
+        }
+
+        void scan(Reader in) throws IOException {
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) { accept(buffer[i]); }
+            }
+            if (state == State.TEXT || state == State.COMMENT) { emitText(); }
+        }
+
+        private void accept(char c) {
+            switch (state) {
+                case TEXT:
+                    if (c == '<') {
+                        emitText();
+                        markup.setLength(0);
+                        state = State.MARKUP;
+                    } else {
+                        appendText(c);
+                    }
+                    break;
+
+                case MARKUP:
+                    if (markup.length() == 0 && Character.isLetter(c) == false && c != '/' && c != '!' && c != '?') {
+                        // Not a tag after all, just a '<' in the text
+                        text.append('<');
+                        state = State.TEXT;
+                        accept(c);
+                    } else if (markup.length() >= MAX_TEXT) {
+                        // Nor is something this long
+                        text.append('<').append(markup);
+                        markup.setLength(0);
+                        quote = 0;
+                        state = State.TEXT;
+                        accept(c);
+                    } else if (quote != 0) {
+                        if (c == quote) { quote = 0; }
+                        markup.append(c);
+                    } else if (c == '>') {
+                        endTag();
+                    } else {
+                        if ((c == '"' || c == '\'') && markup.indexOf("=") >= 0) { quote = c; }
+                        markup.append(c);
+                        if (markup.length() == 3 && markup.charAt(0) == '!' && markup.charAt(1) == '-' && markup.charAt(2) == '-') {
+                            state = State.COMMENT;
+                        }
+                    }
+                    break;
+
+                case COMMENT:
+                    appendText(c);
+                    int length = text.length();
+                    if (c == '>' && length >= 3 && text.charAt(length - 2) == '-' && text.charAt(length - 3) == '-') {
+                        text.setLength(length - 3);
+                        emitText();
+                        state = State.TEXT;
+                    }
+                    break;
+
+                case RAW:
+                    text.append(c);
+                    if (c == '>' && endsRaw()) {
+                        checkScript();
+                        text.setLength(0);
+                        state = State.TEXT;
+                    } else if (text.length() >= MAX_TEXT) {
+                        // Check what we have, keep a tail in case a pattern straddles the cut
+                        checkScript();
+                        text.delete(0, text.length() - 64);
+                    }
+                    break;
+            }
+        } // end accept
+
+       /**
+        * A tag is complete, look at its name and attributes
+        */
+        private void endTag() {
+            quote = 0;
+            state = State.TEXT;
+            if (markup.length() == 0) { return; }
+
+            // Tag names are ascii letters and digits
+            int end = 0;
+            while (end < markup.length() && Character.isLetterOrDigit(markup.charAt(end))) { end++; }
+            String name = markup.substring(0, end).toLowerCase(Locale.ROOT);
+            String tag = markup.toString();
+
+            if (result.dynamic == false && dynamicTagP.matcher(tag).find()) {
+                result.dynamic = true;
+            }
+            if (name.equals("base") && result.base == null) {
+                Matcher m = hrefP.matcher(tag);
+                if (m.find()) { result.base = hrefOf(m); }
+            }
+            if (name.equals("a") || name.equals("link")) {
+                Matcher m = hrefP.matcher(tag);
+                if (m.find()) {
+                    String href = hrefOf(m);
+                    if (href.regionMatches(true, 0, "mailto:", 0, 7)) {
+                        // The mailbox of a mailto:, up to its ?subject= and the like, as searchPage() does
+                        int query = href.indexOf('?');
+                        String mailbox = href.substring(7, (query < 0) ? href.length() : query).replace("%40", "@");
+                        result.print.add(mailbox);
+                        result.texts.add(mailbox);
+                    } else {
+                        result.hrefs.add(href);
+                        if (name.equals("a")) {
+                            anchorHref = href;
+                            anchorText.setLength(0);
+                        }
+                    }
+                }
+            }
+            if (anchorHref != null && tag.length() >= 2 && tag.charAt(0) == '/' && Character.toLowerCase(tag.charAt(1)) == 'a'
+                && (tag.length() == 2 || Character.isLetterOrDigit(tag.charAt(2)) == false)) {
+                result.anchors.putIfAbsent(anchorHref, anchorText.toString().trim());
+                anchorHref = null;
+            }
+            if ((name.equals("script") || name.equals("style")) && tag.endsWith("/") == false) {
+                rawEnd = "</" + name;
+                text.setLength(0);
+                state = State.RAW;
+            }
+        } // end endTag
+
+       /**
+        * The value of the href matched by <code>m</code>, unquoted and decoded
+        */
+        private String hrefOf(Matcher m) {
+            return decodeEntities(((m.group(1) != null) ? m.group(1) : (m.group(2) != null) ? m.group(2) : m.group(3)).trim());
+        }
+
+       /**
+        * Are we at the '>' of the tag closing the current script or style?
+        */
+        private boolean endsRaw() {
+            int start = text.lastIndexOf("</");
+            if (start < 0 || text.length() - start > 64) { return false; }
+            String end = text.substring(start, text.length() - 1);
+            return end.regionMatches(true, 0, rawEnd, 0, rawEnd.length())
+                && end.substring(rawEnd.length()).trim().isEmpty();
+        }
+
+       /**
+        * Look for client side routes, or data loaded, in the script we are in
+        */
+        private void checkScript() {
+            if (result.dynamic == false && rawEnd.equals("</script")
+                && (scriptRouteP.matcher(text).find() || scriptXhrP.matcher(text).find())) {
+                result.dynamic = true;
+            }
+        }
+
+       /**
+        * Add a char of text, handing out the text if it gets too long
+        */
+        private void appendText(char c) {
+            text.append(c);
+            if (text.length() >= MAX_TEXT && state == State.TEXT) {
+                // Cut at the last whitespace, so as not to split an email in two
+                int cut = text.length() - 1;
+                while (cut > 0 && Character.isWhitespace(text.charAt(cut)) == false) { cut--; }
+                if (cut == 0) { cut = text.length(); }
+                String piece = text.substring(0, cut);
+                text.delete(0, cut);
+                keep(piece);
+            }
+        }
+
+       /**
+        * The current text or comment is complete, keep it if it might hold an email
+        */
+        private void emitText() {
+            if (text.length() > 0) { keep(text.toString()); }
+            text.setLength(0);
+        }
+
+        private void keep(String piece) {
+            String decoded = decodeEntities(piece);
+            result.print.add(decoded);
+            if (anchorHref != null && anchorText.length() < LinkScore.MAX_ANCHOR) { anchorText.append(decoded).append(' '); }
+            if (decoded.indexOf('@') >= 0) { result.texts.add(decoded); }
+        }
+
+    } // end class Scanner
+
+   /**
+    * Decode the character references that matter to us, as a browser would
+    */
+    static String decodeEntities(String s) {
+        if (s.indexOf('&') < 0) { return s; }
+        Matcher m = entityP.matcher(s);
+        StringBuffer out = new StringBuffer(s.length());
+        while (m.find()) {
+            String entity = m.group(1);
+            String replacement;
+            if (entity.charAt(0) == '#') {
+                int codePoint;
+                try {
+                    codePoint = (entity.charAt(1) == 'x' || entity.charAt(1) == 'X')
+                        ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+                } catch (NumberFormatException e) {
+                    codePoint = -1;
+                }
+                replacement = Character.isValidCodePoint(codePoint) ? new String(Character.toChars(codePoint)) : m.group();
+            } else if (entity.equals("amp")) { replacement = "&"; }
+            else if (entity.equals("lt")) { replacement = "<"; }
+            else if (entity.equals("gt")) { replacement = ">"; }
+            else if (entity.equals("quot")) { replacement = "\""; }
+            else if (entity.equals("apos")) { replacement = "'"; }
+            else { replacement = " "; }
+            m.appendReplacement(out, Matcher.quoteReplacement(replacement));
+        }
+        m.appendTail(out);
+        return out.toString();
+    } // end decodeEntities
+
+} // end class HttpFastPath
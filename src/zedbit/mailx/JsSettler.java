@@ -0,0 +1,100 @@
+package zedbit.mailx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.javascript.background.JavaScriptJob;
+import com.gargoylesoftware.htmlunit.javascript.background.JavaScriptJobManager;
+
+
+/**
+ * <p>JsSettler waits for the JavaScript of a page to settle, instead of sleeping a fixed
+ * time. It watches the jobs pending in the page's window: timeouts, event handlers and,
+ * since HtmlUnit runs them as jobs, the asynchronous AJAX requests that the
+ * <code>NicelyResynchronizingAjaxController</code> does not make synchronous.</p>
+ *
+ * <p>A page is settled as soon as no job is due soon. Periodic timers, and timers set far
+ * in the future, such as carousels and keep-alives, are not waited for, as they never end.
+ * While jobs are due the settler keeps waiting, up to a cap per page, and up to a budget
+ * for the whole crawl; once the budget is spent pages are no longer waited for.</p>
+ *
+ * <p>How long each page took to settle is recorded, for the summary.</p>
+ *
+ * @author Manuel Mendez
+ */
+class JsSettler {
+
+    // How long to let HtmlUnit run jobs between checks (mS)
+    static final int STEP = 10;
+
+    // Jobs due further away than this are not part of the page loading (mS)
+    static final int HORIZON = 500;
+
+    private final long pageCap; // Longest wait for one page (mS)
+    private final long budget; // Longest wait for all pages together, 0 for no limit (mS)
+
+    // What we waited
+    private final AtomicLong spent = new AtomicLong();
+    private final AtomicLong longest = new AtomicLong();
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder capped = new LongAdder();
+
+
+   /**
+    * Build a settler waiting at most <code>pageCap</code> mS per page, and
+    * <code>budget</code> mS for the whole crawl, unless 0.
+    */
+    JsSettler(long pageCap, long budget) {
+        this.pageCap = pageCap;
+        this.budget = budget;
+    }
+
+   /**
+    * Wait for the JavaScript of <code>page</code>, just loaded or clicked, to settle.
+    * Returns how long it took (mS).
+    */
+    long settle(WebClient webClient, Page page) {
+        final long start = System.currentTimeMillis();
+        long cap = pageCap;
+        if (budget > 0) { cap = Math.min(cap, budget - spent.get()); }
+
+        boolean settled = false;
+        JavaScriptJobManager jobs = page.getEnclosingWindow().getJobManager();
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (jobs == null || jobs.getJobCount((job) -> isDue(job, now)) == 0) {
+                settled = true;
+                break;
+            }
+            if (now - start >= cap) { break; }
+            webClient.waitForBackgroundJavaScript(Math.min(STEP, cap - (now - start)));
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        spent.addAndGet(elapsed);
+        longest.accumulateAndGet(elapsed, Math::max);
+        pages.increment();
+        if (settled == false) { capped.increment(); }
+        return elapsed;
+    } // end settle
+
+   /**
+    * Is this job part of the page still loading?
+    */
+    private static boolean isDue(JavaScriptJob job, long now) {
+        return job.isExecuteAsap()
+            || (job.isPeriodic() == false && job.getTargetExecutionTime() - now <= HORIZON);
+    }
+
+   /**
+    * Print what the settler waited in a nice fashion
+    */
+    String summary() {
+        long count = pages.sum();
+        return ("JavaScript settled on " + count + " pages, average " + (count > 0 ? spent.get() / count : 0)
+            + " mS, longest " + longest.get() + " mS, " + capped.sum() + " pages cut short by the caps");
+    }
+
+} // end class JsSettler
@@ -0,0 +1,80 @@
+package zedbit.mailx;
+
+import java.util.Locale;
+
+
+/**
+ * <p>LinkScore tells how likely a link is to lead to emails, so that the frontier hands out
+ * the most promising links first. A link scores for words in its path, or in the text of
+ * its anchor, that name pages listing people or ways to reach them: contact, imprint, team,
+ * staff, about and the like. It scores for the emails the page it was found in held, as
+ * such pages tend to link to more of them, and loses for each hop from the start page, so
+ * that links scoring alike are crawled breadth first.</p>
+ *
+ * <p>Words naming pages that seldom hold emails, such as tags, archives or logins, lower
+ * the score. Scores are only compared with each other, their scale means nothing.</p>
+ *
+ * @author Manuel Mendez
+ */
+class LinkScore {
+
+    // Words in a path or anchor text, and what each adds to the score, best first
+    private static final String[] WORDS = {
+        "contact", "kontakt", "contacto", "contatti", "imprint", "impressum", "mentions-legales",
+        "team", "staff", "people", "directory", "faculty", "employees", "leadership", "management", "our-",
+        "about", "press", "media", "support", "office", "locations", "careers", "jobs"
+    };
+    private static final int[] WEIGHTS = {
+        40, 40, 40, 40, 40, 40, 40,
+        30, 30, 30, 30, 30, 30, 25, 25, 20,
+        20, 15, 15, 15, 15, 15, 10, 10
+    };
+
+    // Words naming pages that seldom hold emails, or that multiply endlessly
+    private static final String[] POOR = {
+        "/tag/", "/tags/", "/category/", "/page/", "page=", "/archive", "calendar", "/login", "/cart", "sort="
+    };
+
+    // What a hop from the start page costs, a poor word, and each email of the parent page earns
+    static final int HOP = 10;
+    static final int POOR_PAGE = 20;
+    static final int PER_EMAIL = 5;
+    static final int MAX_EMAILS = 5; // Counted at most
+
+    // Anchor text beyond this is not looked at (chars)
+    static final int MAX_ANCHOR = 100;
+
+
+   /**
+    * The score of <code>url</code>, <code>depth</code> hops from the start page, found in a
+    * page holding <code>emails</code> emails, in an anchor reading <code>anchor</code>, or
+    * null if none
+    */
+    static int score(String url, String anchor, int depth, int emails) {
+        int slash = url.indexOf('/', url.indexOf("//") + 2);
+        String path = (slash < 0) ? "/" : url.substring(slash).toLowerCase(Locale.ROOT);
+        int score = words(path) - HOP * depth + PER_EMAIL * Math.min(emails, MAX_EMAILS);
+        if (anchor != null && anchor.isEmpty() == false) {
+            if (anchor.length() > MAX_ANCHOR) { anchor = anchor.substring(0, MAX_ANCHOR); }
+            score += words(anchor.toLowerCase(Locale.ROOT));
+        }
+        for (String poor : POOR) {
+            if (path.contains(poor)) {
+                score -= POOR_PAGE;
+                break;
+            }
+        }
+        return score;
+    } // end score
+
+   /**
+    * What the best word found in <code>text</code>, lower cased, is worth
+    */
+    private static int words(String text) {
+        for (int w = 0; w < WORDS.length; w++) {
+            if (text.contains(WORDS[w])) { return WEIGHTS[w]; }
+        }
+        return 0;
+    }
+
+} // end class LinkScore
@@ -1,64 +1,27 @@
 package zedbit.mailx;
 
-import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.HashSet;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.logging.Logger;
-import java.util.logging.Level;
-import java.util.stream.Collectors;
-
-import com.gargoylesoftware.htmlunit.WebClient;
-import com.gargoylesoftware.htmlunit.NicelyResynchronizingAjaxController;
-import com.gargoylesoftware.htmlunit.SilentCssErrorHandler;
-import com.gargoylesoftware.htmlunit.BrowserVersion;
-
-import com.gargoylesoftware.htmlunit.html.DomText;
-import com.gargoylesoftware.htmlunit.html.HtmlPage;
-import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
-import com.gargoylesoftware.htmlunit.html.DomElement;
 
 
 /**
- * Mailx implements simple crawling of a website, looking for strings that might be email
- * candidates. The class crawls only resources sharing the same uri, and is capable of
- * "clicking" on dynamic routes (using ng-click). The HtmlUnit headless browser is driven
- * to explore both static and dynamic pages.
+ * Mailx is the command line of <code>Crawler</code>: it turns its arguments into a
+ * <code>CrawlConfig</code>, runs the crawl, prints each email as it is published, and
+ * then how the crawl went.
+ *
+ * <p>Emails are printed one event at a time, as the console takes them, so that the
+ * crawl goes no faster than it can be followed.</p>
  *
  * @author Manuel Mendez
  */
 public class Mailx {
 
-    // Member variables
-    static WebClient webClient; // The headless browser
-    static String startPage; // Where the crawl begins, may be a URI or a page
-    static String uri; // The URI 
-    static boolean verbose; // Are we running in verbose mode?
-    static boolean trace; // Are we running in trace mode? Useful for debugging
-    static int linksCrawled; // How many links did we crawl?
-
-    // We will follow two kinds of links, relative which we can build a regex for now, and absolute...
-    static final Pattern relHrefP = Pattern.compile("(^.*)(href=\"/)([^\"]+)(.*$)");
-    static Pattern absHrefP; // compiled at method processArgs once we have extracted our uri
-    static Pattern websiteP; // as above, used to check dynamic links/routes to be within this website
-
-    // Delimiters that we use to separate emails that might exist in the same line
-    // Some funky emails including quotes or the like might be split... but the overwhelming
-    // majority will be captured, including those with embedded dashes
-    static final String DELIMS = "[ ,?!_;:=<>\\(\\)\"]+";
-
-    // Files we will not scan
-    static final Pattern skipP = Pattern.compile(".*(\\.(ico|jpg|jpeg|png|xml|php|php\\?rsd|css|pdf|doc|docx)|(/feed/)|(\\.css\\?.*))$", Pattern.CASE_INSENSITIVE);
-
-    // How long of a wait for HtmlUnit to process background JavaScript when reaching a page? (mS)
-    static final int JS_WAIT = 50;
-
     // Some constants for some pretty-printing 
     static final String ANSI_RED = "\u001B[31m";
     static final String ANSI_RESET = "\u001B[0m";
-    static final String MARGIN = "        ";
 
     /**
     * Entry point for Mailx, a simple scrapping sample program for email extraction.
@@ -66,422 +29,259 @@ public class Mailx {
     * arguments contains the commands line.
     * Can have the following form:
     *
-    * <p> ...Mailx <an uri to crawl from> [-v|-t], i.e. ...Mailx http://mysite.com -v </p>
+    * <p> ...Mailx <an uri to crawl from> [options], i.e. ...Mailx http://mysite.com -v -w 4 </p>
     * <p> The Optional argument -v can be provided for verbose output, -t for trace/debug output </p>
+    * <p> The Optional argument -w sets how many workers (browsers) crawl in parallel </p>
+    * <p> The Optional arguments -o and --format write the distinct emails found to a file </p>
+    * <p> The Optional arguments --js-wait and --js-budget cap the wait for JavaScript to settle </p>
+    * <p> The Optional argument --fast crawls pages without dynamic hooks with plain HTTP </p>
+    * <p> The Optional arguments --offheap and --bloom tune the url index for very large crawls </p>
+    * <p> The Optional arguments --checkpoint and --resume log the crawl, and resume it if killed </p>
+    * <p> The Optional argument --cache keeps responses on disk, to re-crawl only what changed </p>
+    * <p> The Optional arguments --dedup-distance and --no-dedup tune skipping duplicate pages </p>
+    * <p> The Optional arguments --template-sample, --template-max and --no-templates tune skipping crawl traps </p>
+    * <p> The Optional arguments --script-cache and --no-filter tune what browsers fetch </p>
+    * <p> The Optional arguments --metrics and --metrics-every write the timings of each phase </p>
+    * <p> The Optional argument --no-text searches html only, not text, JSON, XML nor scripts </p>
+    * <p> The Optional arguments --no-robots and --no-sitemaps skip reading robots.txt and sitemaps </p>
+    * <p> The Optional arguments --max-pages and --max-time stop the crawl once its budget is spent </p>
+    * <p> The Optional argument --click-routes clicks every route rather than loading it by url </p>
+    * <p> The Optional arguments --per-host, --rate, --retries and --no-politeness tune the load on hosts </p>
+    * <p> ...Mailx --batch seeds.txt [options] crawls every uri in seeds.txt, --sites of them at once </p>
+    * <p> The Optional arguments --browsers and --max-heap bound what a batch holds in memory </p>
+    * <p> The Optional arguments --recycle-after and --frontier-memory bound what a long crawl holds in memory </p>
     */
     public static void main(String[] arguments) {
 
-        // Verify the command line arguments and load into variables startPage & uri
-        processArgs(arguments);
-
-        // Get a headless browser
-        setWebClient();
-
-        // Now begin the drill down at startPage!
-        crawl(startPage);
-
-        System.out.println ("Crawling completed!\nLinks Crawled: " + linksCrawled 
-            + ", " +UrlTracker.summary() );
-
-    } // end main
-
-
-   
-    /**
-    * Crawl, but limit ourselves to only links that we have not visited before
-    * <code>Crawl(String pageUrl)</code> is called for pages for which we have a static URL.
-    * <code>Crawl()</code> is really a function that sets the stage for <code>traverse()</code>
-    *  to do the work. 
-    */
-    private static void crawl(String pageUrl) {
-
-        // Increase crawl count, wait a bit for the page's JavaScript and HtmlUnit to catch up.
-        linksCrawled++;
-        webClient.waitForBackgroundJavaScript(JS_WAIT);
-
-        // First, check if we have been at this URL before, we back out
-        if (UrlTracker.hasBeenVisited(pageUrl) == true) {
-            printlnT("We have already visited " + pageUrl + ". Skipping it");
-            return;
-        }
-
-        // Connect and get the page, backout if we can't.
-        printlnV("Crawling Static Link w/URL=" + pageUrl);
-        HtmlPage page;  // This will be the page we will be working on, as represented by htmlUnit
-        try { page = webClient.getPage(pageUrl); }
-        catch (Exception e) {
-            UrlTracker.addErrored(pageUrl);
-            printlnT("HtmlUnit getPage exception " + e.toString());
-            if (trace) { e.printStackTrace(); }
-            return;
-        }
-
-        // Now do the actual crawling by traversing from the HtmlPage page loaded
-        traverse (page, pageUrl);
-
-    } // End crawl
-
-    /**
-    * <p> Crawl from the current page dynamically reached by simulating a click. The current
-    * page is passed in parameter page. Notice that <code>Crawl(String pageUrl)</code> is 
-    * instead called with a String parameter for pages that are expressed via a static URL.</p>
-    *
-    * <code>Crawl()</code> is really a function that sets the stage for <code>traverse()</code>
-    *  to do the work. 
-    *
-    * Because the URL of a page resulting from a script/route cannot be anticipated until
-    * the browser is called, this page might not be inside this website. If this is the case
-    * the method backs out of this page. To back out the code simulates pressing the "back"
-    * button of the simulated browser.
-    * 
-    */
-    private static void crawl(HtmlPage page) {
-
-        // Increase crawl count, wait a bit for the page's JavaScript and HtmlUnit to catch up.
-        linksCrawled++;
-        webClient.waitForBackgroundJavaScript(JS_WAIT);
-
-        final String pageUrl = page.getUrl().toString();
-        printlnV("Crawling Dynamic Link w/URL=" + pageUrl);
-
-        // Now check if we have been at this URL before, OR if this dynamic
-        // link is actually not in this website, if so we back out
-        if (UrlTracker.hasBeenVisited(pageUrl) == true) {
-            printlnV(MARGIN + pageUrl + " already crawled. Back buttoning it");
-            try { webClient.getWebWindows().get(0).getHistory().back(); }
-            catch (Exception e) {
-                UrlTracker.addErrored(pageUrl); // Could be out of the website
-                System.err.println("Back button after dynamic link invocation failed.");
-                if (trace) { e.printStackTrace(); }
-            }
-            return;
-        }
-
-        // As this crawl(HtmlPage page) method gets called dynamically, it is possible that
-        // the website's dynamic code has redirected us out to a different website, so we 
-        // need to check and if so backout
-        Matcher m = websiteP.matcher(pageUrl); 
-        if (m.matches() == false) { 
-            printlnV(MARGIN + "Dynamic link/route sent us outside this website. Backing out and back buttoning!");
-            try { webClient.getWebWindows().get(0).getHistory().back(); }
-            catch (Exception e) {
-                UrlTracker.addErrored(pageUrl);
-                System.err.println("Back button after dynamic link invocation failed.");
-                if (trace) { e.printStackTrace(); }
-            }
-            return;
-        }
-
-       // Now do the actual crawling by traversing from the HtmlPage page loaded
-        traverse (page, pageUrl);
-
-    } // End crawl
-
-    /**
-    * <p>traverse checks if the current page has been visited before (by calling the 
-    * helper class  <code>UrlTracker.hasBeenVisited()</code> method). If the page has 
-    * not been visited, traverse looks for text and comment nodes that might
-    * contain email strings by calling <code>searchNodes<code> on all HTML nodes containing 
-    * text, comments included.</p>
-    * 
-    * <p>In addition, static links are collected, and dynamic routes visited via simulating 
-    * HtmlUnit's click action. <code>traverse</code> then calls <code>visitDynamicLinks</code> 
-    * and <code>visitStaticLinks</code>on these reachable links, which results in recursion.</p>
-    */
-    private static void traverse (HtmlPage page, String pageUrl) {
-
-        // Mark we have been here!
-        UrlTracker.addVisited(pageUrl);
-
-        // The page is open and loaded, now we can search...
-        searchNodes(page, pageUrl, "//text()[contains(.,\"@\")]"); // all DOM text nodes &
-        searchNodes(page, pageUrl, "//comment()[contains(.,\"@\")]"); // all html comments
-        searchNodes(page, pageUrl, "a[starts-with(@href, 'mailto')]/text()"); // all mailtos
-
-
-        try {
-
-            // Here we click and crawl recursively on all dynamic links
-            visitDynamicLinks (page, pageUrl);
-    
-            // Here we crawl recursively on all static links
-            visitStaticLinks (page, pageUrl);
-
-            // HtmlUnit needs this call to release resources...
-            webClient.close();
-
-        } catch (StackOverflowError e) {
-            // Need to explore the root cause of the overflow a bit better... 
-            UrlTracker.addErrored(pageUrl);
-            printlnV("StackOverflow to get to this link depth! Increase, if possible -Xss param at the command line!");
-            if (trace) { e.printStackTrace(); }
-            return;
-        } catch (Exception e) {
-            UrlTracker.addErrored(pageUrl);
-            printlnV("Unexpected error while visiting and traversing links!");
-            if (trace) { e.printStackTrace(); }
-            return;
-
-        }
-
-    }
-
-    /**
-    * searchNodes visits the current page for DOM nodes, and then looks 
-    * looking for strings that might be emails in each of these nodes.mic routes
-    */
-    private static void searchNodes (HtmlPage page, String pageUrl, String xPath) {
-
-
-        // Ask from xPath text that has one (or more) embedded '@', store them in 'possibles'
-        List<?> possibles;
-        try { possibles = page.getByXPath(xPath); }
-        catch (Exception e) {
-            printlnV("HtmlUnit's searchNode XPATH=" + xPath + " died for this particular page! ");
-            if (trace) { e.printStackTrace(); }
-            return;
-        }
-        printlnT("---- Possibilities found: " + possibles.size());
-
-        // Now need to search these text fragments for actual emails.
-        Set<String> emails = new HashSet<String>();
-        possibles.forEach((i) -> {
-            String[] fragments = i.toString().split(DELIMS);
-            for ( String s : fragments ) {
-                // We take as possibles anything of the form a@b.c where a, b, c have 1 or more chars in lenght
-                // We reject a@b., a@local, or @life, some emails with embedded quotes might be lost :(
-                if (s.indexOf('@') > 0 && s.indexOf('.') > 2 && (s.length() - s.indexOf('.')) >= 1) {
-                    System.out.println(MARGIN + s + ANSI_RED + "\n" +  MARGIN + "^^^ Likely an Email!"
-                        + ANSI_RESET + " [at " + pageUrl +"]");
-                } 
-            }
-        });
-
-    } // End searchNodes
-
-    // An enum for visitStaticLinks() and getStaticLinks(), actions for ANCHOR and HREF 
-    // are nearly identical
-    private enum LinkType { ANCHOR, HREF }
-
-    /**
-    * visitStaticLinks visits all static links included in the 
-    * set <code> links </code>
-    */
-    private static void visitStaticLinks (HtmlPage page, String pageUrl) {
-
-        // Get the anchors, then the HREFS, store them in links
-        Set<String> links = getStaticLinks (page, pageUrl, LinkType.ANCHOR);
-        links.addAll (getStaticLinks (page, pageUrl, LinkType.HREF));
-
-        // Now we recurse on the static content that we accumulated
-        links.forEach((i) -> {
-            printlnT("---- traversing static link: " + i);
-            if (UrlTracker.hasBeenVisited(i) == false) {
-                // We visit a URL we have not visited
-                try { crawl(i); }
-                catch (Exception e) {
-                    // If we error out, skip that link but try the others!
-                    UrlTracker.addErrored(i);
-                    printlnV("visitStaticLinks, exception caught when crawling " + i);
-                    if (trace) { e.printStackTrace(); }
-                }
-            }
-        });
-    } // end Visit Static Links
-
-
-    /**
-    * getStaticLinks visits the anchors and hyperlink expressions of the current page
-    * let it be ANCHORs or HREFs based on the input of the parameter <code>type</type> 
-    * and returns them as a set.
-    */
-    private static Set<String> getStaticLinks (HtmlPage page, String pageUrl, LinkType type) {
-
-
-        // What we find as a list, might have many duplicates
-        List<String> linksAsList = null;
-
-        if (type == LinkType.ANCHOR) {
-            // Get all the links that might be stored in elements understood as anchors by the browser
-            linksAsList = page.getAnchors().stream()
-                .map(Object::toString)
-                .collect(Collectors.toList());
-            printlnT("At " + pageUrl + "\nTotal anchors found " + linksAsList.size());
-        }
-        else if (type == LinkType.HREF) {
-            // Get all links that are understood as HREFs by the browser
-            linksAsList = page.getByXPath("//link").stream()
-                .map(Object::toString)
-                .collect(Collectors.toList());
-            printlnT("At " + pageUrl + "\nLinks found " + linksAsList.size());
-        } else {
-            System.err.println ("Error! Unsuported type " + type);
-            return null;
-        }
-
-        // We will eliminate duplicates by returning a set, case insensitive
-        Set<String> linksAsSet = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER); 
-        linksAsList.forEach((i) -> {
-            String iStr = i.toString(); 
-            printlnT(MARGIN + iStr);
-            Matcher m1 = absHrefP.matcher(iStr);
-            Matcher m2 = relHrefP.matcher(iStr);
-            if (m1.matches()) { linksAsSet.add(m1.group(3)); }
-            if (m2.matches()) { linksAsSet.add(uri + m2.group(3)); }
-            m1.reset(); m2.reset();
-        });
-        printlnT("------ Possible Links (Anchors & HREFs) to Drill Into: -----");
-        linksAsList.forEach((i) -> { printlnT(MARGIN + i); });
-        printlnT("------ Count: " + linksAsList.size());
-
-
-        // Now filter and remove static links to (presumed) binaries we do not search,
-        // return the output
-        
-        return filterByType(linksAsSet);
-    } // getStaticLinks
-
-    /**
-    * visitDynamicLinks finds clickable items in the current page 
-    * and executes a simulated HtmlUnit click action on them. It then
-    * passes the new current page to  <code> crawl(HtmlPage page)</code>
-    */
-    private static void visitDynamicLinks (HtmlPage page, String pageUrl) {
-
-        // >>> Future upgrades! Here more logic could be added for buttons, RoR dynamic content, ASP, etc... *****/
-
-        // Now get list of all elements that Angular uses for clickable dynamic links
-        final List<?> clickables = page.getByXPath("//*[contains(@ng-click,'changeRoute')]");
-        printlnT("At: " + pageUrl);
-        printlnT("elements w/ dynamic click hooks: " + clickables.size());
-        clickables.forEach((i) -> { printlnT(i.toString());});
-        printlnT("-------------------------");
-
-        // Now here we click on the dynamic content, return via "Back" and keep collecting static content
-        clickables.forEach((i) -> {
-            printlnT("HtmlUnit browser getting page via simulated click of " + i.toString());
-            HtmlPage newPage;
-            try { newPage = ((DomElement) i).click(); }
-            catch (Exception e) {
-                System.err.println("Click action on " + i.toString() + " failed. Skipping it");
-                if (verbose) { e.printStackTrace(); }
-                return;
-            }
-            // Crawl the new page we have arrived at!
-            crawl (newPage);
-
-        });
-    } // End visitDynamicLinks
-
-
-    /**
-    * filterByType removes links to static links such as pngs, jpgs, icos, and
-    * under types that we cannot currently handle, which are stored in the regex
-    * skipP 
-    */
-    private static Set<String> filterByType(Set<String> urls) {
-
-        Set<String> urlsOut = new HashSet<String>();
-        urls.forEach((i) -> {
-            Matcher m = skipP.matcher(i);
-            if (m.matches()) {
-                printlnT(MARGIN + "Skipping due to filetype: " + i);
-            } else { 
-                // It did not match the filter, we keep it!
-                urlsOut.add(i);
-            } 
-            m.reset();
-        });
-        return urlsOut;
-    }
-
-
-    /**
-    * setWebClient sets up the HtmlUnit web client (i.e. the simulated browser) with
-    * many settings that have proven correct in the field. 
-    */
-    private static void setWebClient() {
-        // Turn the logger for htmlUnit off, otherwise we will be swamped indeed
-        java.util.logging.Logger.getLogger("com.gargoylesoftware").setLevel(Level.OFF);
-
-        // Get the headless browser
-        try { webClient = new WebClient(BrowserVersion.FIREFOX_38); }
-        catch (Exception e) {
-            printlnV("Could not open browser window! uri=" + uri);
-            e.printStackTrace();
-            printlnV("Exiting...");
+        // Verify the command line arguments and load them into the config of the crawl
+        CrawlConfig config = processArgs(arguments);
+        Crawler crawler = new Crawler(config);
+        System.out.println("Workers: " + crawler.workers() + ((config.batchFile != null) ? " per site" : ""));
+        Printer printer = new Printer();
+        crawler.subscribe(printer);
+        try { crawler.run(); }
+        catch (IOException e) {
+            System.err.println(e.getMessage());
             System.exit(1);
         }
 
-        // Suppress myriad of javascript errors, like real browsers do
-        webClient.getOptions().setThrowExceptionOnScriptError(false);
-
-        // Set up the web client with many values that have proven to work in the field
-        // Take some off, everything goes haywire. Know it by experience!
-        webClient.getOptions().setCssEnabled(true); 
-        webClient.setCssErrorHandler(new SilentCssErrorHandler());
-        webClient.setAjaxController(new NicelyResynchronizingAjaxController()); 
-        webClient.waitForBackgroundJavaScript(10 * 1000);
-        webClient.getOptions().setThrowExceptionOnFailingStatusCode(false); 
-        webClient.getOptions().setThrowExceptionOnScriptError(false); 
-        webClient.getOptions().setRedirectEnabled(false); 
-        webClient.getOptions().setAppletEnabled(false); 
-        webClient.getOptions().setJavaScriptEnabled(true); 
-        webClient.getOptions().setPopupBlockerEnabled(true); 
-        webClient.getOptions().setTimeout(5000); 
-        webClient.getOptions().setPrintContentOnFailingStatusCode(false); 
+        // Every email published has been printed once the printer completes
+        try { printer.completed.await(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        System.out.println(crawler.summary());
+        if (printer.failed == true) { System.exit(1); }
 
-    } // end setWebClient
+    } // end main
 
    /**
     * processArgs processes the command line.
     * The command line can have the following form: </p>
     *
-    * <p> ...Mailx <an uri to crawl from> [-v|-t], i.e. ...Mailx http://mysite.com -v </p>
+    * <p> ...Mailx <an uri to crawl from> [options], i.e. ...Mailx http://mysite.com -v -w 4 </p>
     * <p> The Optional argument -v can be provided for verbose output, 
-    *  Use -t for trace/debug output</p>
+    *  Use -t for trace/debug output, -w for the number of parallel workers. The
+    *  other options are listed by <code>usage()</code>. Returns the config of the crawl.</p>
     */
-    private static void processArgs(String[] arguments) {
+    static CrawlConfig processArgs(String[] arguments) {
+
+        CrawlConfig config = new CrawlConfig();
 
         if (arguments.length == 0) {
-            System.err.println("Usage: ...Mailx <uri> [-v|-t], i.e. ...Mailx 'http://mysite.com' -v");
-            System.err.println("Optional argument -v can be provided for verbose output, -t for trace/debug output");
-            System.exit(1);
+            usage();
         }
-        if (containsPattern(arguments[0], "^http://.+") == false) {
+        // Either a batch of seeds, or a single uri to crawl from
+        int first = 1;
+        if (arguments[0].equals("--batch") && arguments.length > 1) {
+            config.batchFile = arguments[1];
+            first = 2;
+        } else if (containsPattern(arguments[0], "^http://.+") == false) {
             System.err.println("Input: " + arguments[0] + " invalid! Please include http:// as prefix!");
             System.exit(1);
         }
-        if (arguments.length >= 2 && containsPattern(arguments[1], "^-t.*") == true) {
-            System.out.println("Trace mode is on!");
-            trace = true;
+        for (int a = first; a < arguments.length; a++) {
+            if (containsPattern(arguments[a], "^-t.*") == true) {
+                System.out.println("Trace mode is on!");
+                Crawler.trace = true;
+            } else if (containsPattern(arguments[a], "^-v.*") == true) {
+                System.out.println("Verbose mode is on!");
+                Crawler.verbose = true;
+            } else if (arguments[a].equals("-w") && a + 1 < arguments.length) {
+                config.workers = parseCount(arguments[++a], "-w");
+            } else if (arguments[a].equals("-o") && a + 1 < arguments.length) {
+                config.outFile = arguments[++a];
+            } else if (arguments[a].equals("--format") && a + 1 < arguments.length) {
+                config.outFormat = arguments[++a];
+                if (Results.parseFormat(config.outFormat) == null) {
+                    System.err.println("Option --format expects jsonl or csv, got: " + arguments[a]);
+                    System.exit(1);
+                }
+            } else if (arguments[a].equals("--js-wait") && a + 1 < arguments.length) {
+                config.jsWait = parseCount(arguments[++a], "--js-wait");
+            } else if (arguments[a].equals("--js-budget") && a + 1 < arguments.length) {
+                config.jsBudget = parseCount(arguments[++a], "--js-budget");
+            } else if (arguments[a].equals("--fast")) {
+                config.fast = true;
+            } else if (arguments[a].equals("--checkpoint") && a + 1 < arguments.length) {
+                config.checkpointDir = arguments[++a];
+            } else if (arguments[a].equals("--resume") && a + 1 < arguments.length) {
+                config.resumeDir = arguments[++a];
+            } else if (arguments[a].equals("--checkpoint-every") && a + 1 < arguments.length) {
+                config.checkpointEvery = parseCount(arguments[++a], "--checkpoint-every");
+            } else if (arguments[a].equals("--cache") && a + 1 < arguments.length) {
+                config.cacheDir = arguments[++a];
+            } else if (arguments[a].equals("--no-dedup")) {
+                config.noDedup = true;
+            } else if (arguments[a].equals("--dedup-distance") && a + 1 < arguments.length) {
+                config.dedupDistance = parseCount(arguments[++a], "--dedup-distance");
+                if (config.dedupDistance > PageDedup.MAX_DISTANCE) {
+                    System.err.println("Option --dedup-distance expects at most " + PageDedup.MAX_DISTANCE + " bits, got: " + arguments[a]);
+                    System.exit(1);
+                }
+            } else if (arguments[a].equals("--no-templates")) {
+                config.noTemplates = true;
+            } else if (arguments[a].equals("--template-sample") && a + 1 < arguments.length) {
+                config.templateSample = parseCount(arguments[++a], "--template-sample");
+            } else if (arguments[a].equals("--template-max") && a + 1 < arguments.length) {
+                config.templateMax = parseCount(arguments[++a], "--template-max");
+            } else if (arguments[a].equals("--no-filter")) {
+                config.noFilter = true;
+            } else if (arguments[a].equals("--script-cache") && a + 1 < arguments.length) {
+                config.scriptCache = parseCount(arguments[++a], "--script-cache");
+            } else if (arguments[a].equals("--no-politeness")) {
+                config.noPoliteness = true;
+            } else if (arguments[a].equals("--per-host") && a + 1 < arguments.length) {
+                config.perHost = parseCount(arguments[++a], "--per-host");
+            } else if (arguments[a].equals("--rate") && a + 1 < arguments.length) {
+                config.rate = parseCount(arguments[++a], "--rate");
+            } else if (arguments[a].equals("--retries") && a + 1 < arguments.length) {
+                config.retries = parseCount(arguments[++a], "--retries");
+            } else if (arguments[a].equals("--no-text")) {
+                config.noText = true;
+            } else if (arguments[a].equals("--no-robots")) {
+                config.noRobots = true;
+            } else if (arguments[a].equals("--no-sitemaps")) {
+                config.noSitemaps = true;
+            } else if (arguments[a].equals("--click-routes")) {
+                config.clickRoutes = true;
+            } else if (arguments[a].equals("--metrics") && a + 1 < arguments.length) {
+                config.metricsFile = arguments[++a];
+            } else if (arguments[a].equals("--metrics-every") && a + 1 < arguments.length) {
+                config.metricsEvery = parseCount(arguments[++a], "--metrics-every");
+            } else if (arguments[a].equals("--sites") && a + 1 < arguments.length) {
+                config.sitesAtOnce = parseCount(arguments[++a], "--sites");
+            } else if (arguments[a].equals("--browsers") && a + 1 < arguments.length) {
+                config.browsersMax = parseCount(arguments[++a], "--browsers");
+            } else if (arguments[a].equals("--max-heap") && a + 1 < arguments.length) {
+                config.maxHeap = parseCount(arguments[++a], "--max-heap");
+            } else if (arguments[a].equals("--max-pages") && a + 1 < arguments.length) {
+                config.maxPages = parseCount(arguments[++a], "--max-pages");
+            } else if (arguments[a].equals("--max-time") && a + 1 < arguments.length) {
+                config.maxTime = parseCount(arguments[++a], "--max-time");
+            } else if (arguments[a].equals("--recycle-after") && a + 1 < arguments.length) {
+                config.recycleAfter = parseCount(arguments[++a], "--recycle-after");
+            } else if (arguments[a].equals("--frontier-memory") && a + 1 < arguments.length) {
+                config.frontierMemory = parseCount(arguments[++a], "--frontier-memory");
+            } else if (arguments[a].equals("--offheap")) {
+                config.offHeap = true;
+            } else if (arguments[a].equals("--bloom") && a + 1 < arguments.length) {
+                config.bloomExpected = parseCount(arguments[++a], "--bloom");
+            } else {
+                System.err.println("Unknown argument: " + arguments[a]);
+                usage();
+            }
         }
-        if (arguments.length >= 2 && containsPattern(arguments[1], "^-v.*") == true) {
-            System.out.println("Verbose mode is on!");
-            verbose = true;
+        if (config.batchFile != null) {
+            if (config.checkpointDir != null || config.resumeDir != null) {
+                System.err.println("Options --checkpoint and --resume crawl a single site, not a --batch");
+                System.exit(1);
+            }
+            System.out.println("Seeds: " + config.batchFile + ", " + config.sitesAtOnce + " sites at once");
+            return config;
         }
 
         // An URI argument with some possibility of success, make sure it has an ending '/', needed for our regExes
-        startPage = arguments[0];
+        String startPage = arguments[0];
         if(startPage.charAt(startPage.length() -1) != '/') { startPage = new String(arguments[0] + '/'); }
 
         // Now extract the URI
-        Pattern uriOnly = Pattern.compile("(^http://[^/]+/)(.*$)");
-        Matcher m = uriOnly.matcher(startPage);
+        Matcher m = Site.uriOnlyP.matcher(startPage);
         if (m.matches() == false) {
             System.err.println("Please check your entry! Cannot extract the URI from " + startPage);
             System.exit(1);
         } else {
-            // We have a good URI, we can now build regex to match absolute URIs
-            uri = m.group(1); m.reset();
+            // We have a good URI, links will be kept to those under it once made canonical
+            String uri = UrlCanon.canonical(m.group(1)); m.reset();
+            startPage = UrlCanon.canonical(startPage);
             System.out.println("Starting Page: " + startPage);
             System.out.println("URI: " + uri);
-            absHrefP = Pattern.compile("(^.*)(href=\")(" + uri +"[^\"]+)(.*$)");
-            websiteP = Pattern.compile("(^" + uri +")(.*$)");
+            config.seed = startPage;
         }
+        return config;
     } // end processArgs
 
 
+    /**
+    * Print the command line usage and exit
+    */
+    private static void usage() {
+        System.err.println("Usage: ...Mailx <uri> [options], i.e. ...Mailx 'http://mysite.com' -v -w 4");
+        System.err.println("   or: ...Mailx --batch <seeds file, or - for stdin> [options], one uri per line");
+        System.err.println("Options:");
+        System.err.println("  -v | -t                 verbose output, or trace/debug output");
+        System.err.println("  -w <workers>            number of parallel workers, default is one per core");
+        System.err.println("  -o <file>               write each distinct email to a file");
+        System.err.println("  --format jsonl|csv      format of that file, jsonl unless its name ends in .csv");
+        System.err.println("  --js-wait <mS>          longest wait for the JavaScript of a page to settle, default " + CrawlConfig.JS_WAIT);
+        System.err.println("  --js-budget <seconds>   longest wait for JavaScript over the whole crawl, default no limit");
+        System.err.println("  --fast                  fetch pages without dynamic hooks with plain HTTP, skipping HtmlUnit");
+        System.err.println("  --checkpoint <dir>      log the crawl in dir, so that it can be resumed if killed");
+        System.err.println("  --resume <dir>          resume the crawl logged in dir, and keep logging there");
+        System.err.println("  --checkpoint-every <s>  seconds between forcing the log to disk, default " + CrawlConfig.CHECKPOINT_EVERY);
+        System.err.println("  --cache <dir>           keep responses in dir, and reuse those the server says did not change");
+        System.err.println("  --dedup-distance <bits> most SimHash bits a near duplicate page differs in, default " + PageDedup.DISTANCE);
+        System.err.println("  --no-dedup              traverse pages even if their content was seen under another url");
+        System.err.println("  --template-sample <n>   pages of an url template in a row without a new email that stop its crawl, default " + UrlTemplates.SAMPLE);
+        System.err.println("  --template-max <n>      most pages crawled of an url template, default no limit");
+        System.err.println("  --no-templates          crawl every url, however many of its url template yielded nothing");
+        System.err.println("  --script-cache <MB>     memory for scripts and stylesheets shared by all workers, default " + ResourceFilter.SCRIPT_CACHE);
+        System.err.println("  --no-filter             let browsers fetch images, fonts, media and other hosts' resources");
+        System.err.println("  --per-host <n>          most requests in flight to a host, adapting below it to its load, default one per worker");
+        System.err.println("  --rate <n>              most requests per second to a host, default no limit");
+        System.err.println("  --retries <n>           times a page that failed to load is tried again, with backoff, default " + CrawlConfig.RETRIES);
+        System.err.println("  --no-politeness         send requests as fast as workers ask, without limits nor backoff");
+        System.err.println("  --no-text               search html only, not text, JSON, XML nor scripts, nor the XHRs of pages");
+        System.err.println("  --no-robots             crawl pages robots.txt disallows");
+        System.err.println("  --no-sitemaps           find pages by links only, not from the sitemaps robots.txt points to");
+        System.err.println("  --click-routes          click every route and go back, for sites whose routes cannot be loaded by url");
+        System.err.println("  --max-pages <n>         crawl at most that many pages of a site, the most promising first");
+        System.err.println("  --max-time <s>          take no more pages, nor sites, after that many seconds, then finish cleanly");
+        System.err.println("  --metrics <file>        write the timings of each phase of the crawl to file, as JSON");
+        System.err.println("  --metrics-every <s>     also write them every that many seconds while crawling");
+        System.err.println("  --sites <n>             with --batch, sites crawled at once, default " + CrawlConfig.SITES);
+        System.err.println("  --browsers <n>          most headless browsers open at once over all sites, default no limit");
+        System.err.println("  --max-heap <percent>    recycle browsers, and with --batch start no more sites, while the heap is fuller, default " + CrawlConfig.MAX_HEAP);
+        System.err.println("  --recycle-after <pages> close each browser and open it anew after it loaded that many pages, default " + CrawlConfig.RECYCLE_AFTER);
+        System.err.println("  --frontier-memory <n>   links queued in memory per site, the rest spill to disk, default " + CrawlConfig.FRONTIER_MEMORY);
+        System.err.println("  --offheap               keep visited urls off the heap, for very large crawls");
+        System.err.println("  --bloom <urls>          add a Bloom filter sized for that many urls in front of their lookups");
+        System.exit(1);
+    } // end usage
+
+    /**
+    * Parse a positive count given for command line option <code>option</code>, exit if invalid.
+    */
+    private static int parseCount(String value, String option) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count > 0) { return count; }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.err.println("Option " + option + " expects a positive number, got: " + value);
+        System.exit(1);
+        return 0;
+    } // end parseCount
+
     /**
     * Check if a given pattern exists in a string.
     */
@@ -493,73 +293,48 @@ public class Mailx {
         return matcher.find();
     } // end containsPattern
 
-   /**
-    * Print to the console if verbose mode is on (-v at the command line).
-    * Also prints when trace mode is on.
-    */
-    private static void printlnV(String str) {
-        // Print out if verbose or trace mode are on
-        if (verbose == true || trace == true) { System.out.println(str); }
-    } // end printlnT
-
-   /**
-    * Print to the console if trace mode is on (-t at the command line)
-    */
-    private static void printlnT(String str) {
-        // Print out only if trace mode is on
-        if (trace == true) { System.out.println(str); }
-    } // end printlnT
-
 
     // Helper static nested classes //
 
    /**
-    * The UrlTracker class encapsulates the set of urls that that have already been visited, 
-    * and the set of urls where we have errored out,
+    * Printer prints the emails, and the sites of a batch, published by the crawl, asking
+    * for one event at a time
     */
-    private static class UrlTracker {
-
-        // Tracks pages where we have crawled
-        static final Set<String> urlsVisited = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER); 
+    private static class Printer implements Flow.Subscriber<CrawlEvent> {
 
-        // Tracks pages where we errored out, we do not try to revisit them
-        static final Set<String> urlsErrored = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile boolean failed; // Did the events end in an error?
+        private Flow.Subscription subscription;
 
-
-       /**
-        * Call addVisited() when needing to indicate that String url has been visited. 
-        */
-        private static boolean addVisited (String url) {
-            // Add to the set of urls we have visited
-            return urlsVisited.add (url);
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
         }
 
-       /**
-        * Call addErrored() when needing to indicate that visiting String url resulted in
-        * an error. This url should not be visited nor marked as reachable in the future
-        */
-        private static boolean addErrored (String url) {
-            printlnV("Adding to Error List. Could not successfully visit: " + url);
-            return urlsErrored.add(url);
+        @Override
+        public void onNext(CrawlEvent event) {
+            if (event.kind == CrawlEvent.Kind.EMAIL) {
+                System.out.println(Crawler.MARGIN + event.email + ANSI_RED + "\n" +  Crawler.MARGIN + "^^^ Likely an Email!"
+                    + ANSI_RESET + " [at " + event.url +"]");
+            } else if (event.kind == CrawlEvent.Kind.SITE) {
+                System.out.println("Site " + event.message);
+            }
+            subscription.request(1);
         }
 
-       /**
-        * Call hasBeenVisited() if wanting to figure out if this URL has been visited
-        * either successfully, or even if we got an error
-        */
-        private static boolean hasBeenVisited(String url) {
-            return (urlsVisited.contains(url) || urlsErrored.contains(url));
-        } 
-
-       /**
-        * Print the class contents in a nice fashion
-        */
-        private static String summary() {
-            return ("distinct urls visited: " + urlsVisited.size() + ", errorer out: " 
-                + urlsErrored.size());
-        } 
-
+        @Override
+        public void onError(Throwable throwable) {
+            System.err.println("The crawl failed! " + throwable.toString());
+            if (Crawler.trace) { throwable.printStackTrace(); }
+            failed = true;
+            completed.countDown();
+        }
 
-    } //end class UrlTracker
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    } // end class Printer
 
-} // end class MailX
\ No newline at end of file
+} // end class Mailx
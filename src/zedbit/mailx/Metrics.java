@@ -0,0 +1,242 @@
+package zedbit.mailx;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * <p>Metrics times each phase of the crawl of each page: fetching it, letting its
+ * JavaScript settle, searching it, extracting its links, finding its routes, clicking them
+ * and going back. A slow crawl can then be told to be the network, the site's JavaScript,
+ * or our own work.</p>
+ *
+ * <p>Each phase is timed by a <code>PhaseEvent</code>, a JFR event, so that a recording
+ * (i.e. java -XX:StartFlightRecording) shows every phase of every page on its timeline.
+ * Whether recorded or not, each timing also goes into the histogram of its phase: counts in
+ * buckets growing by powers of two, each cut in 16, which is within 7% of the true value
+ * and costs a few atomic adds.</p>
+ *
+ * <p>The histograms are written as a JSON report at the end of the crawl, and periodically
+ * while it runs, if asked for. Each <code>Crawler</code> has Metrics of its own, so that
+ * crawls run in one JVM are timed and reported apart.</p>
+ *
+ * @author Manuel Mendez
+ */
+class Metrics {
+
+    // What is timed
+    enum Phase { FETCH, SETTLE, SEARCH, LINKS, ROUTES, CLICK, BACK }
+
+    // Buckets of a histogram, see bucket()
+    static final int SUB_BITS = 4;
+    static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) << SUB_BITS;
+
+    private final Histogram[] histograms = new Histogram[Phase.values().length];
+    private final long started = System.currentTimeMillis();
+    private final Crawler crawler; // Whose links and emails are reported
+    private ScheduledExecutorService reporter; // Writes the report periodically, null if not asked to
+
+
+   /**
+    * Build the metrics of the crawl of <code>crawler</code>
+    */
+    Metrics(Crawler crawler) {
+        this.crawler = crawler;
+        for (int p = 0; p < histograms.length; p++) { histograms[p] = new Histogram(); }
+    }
+
+
+   /**
+    * Start timing <code>phase</code>. Hand what is returned to <code>end()</code>
+    */
+    static PhaseEvent begin(Phase phase) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.nanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+   /**
+    * Stop timing a phase begun by <code>begin()</code>, for page <code>pageUrl</code>
+    */
+    void end(PhaseEvent event, String pageUrl) {
+        event.end();
+        histograms[event.phase.ordinal()].record((System.nanoTime() - event.nanos) / 1000);
+        if (event.shouldCommit()) {
+            event.name = event.phase.name().toLowerCase(Locale.ROOT);
+            event.url = pageUrl;
+            event.commit();
+        }
+    }
+
+   /**
+    * Write the report of the crawl to <code>file</code> every <code>seconds</code>, unless
+    * 0, and at the end of the crawl
+    */
+    void reportTo(String file, int seconds) {
+        if (seconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor((r) -> {
+                Thread t = new Thread(r, "mailx-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleWithFixedDelay(() -> write(file), seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+   /**
+    * The crawl is over: write the report a last time
+    */
+    void close(String file) {
+        if (reporter != null) { reporter.shutdownNow(); }
+        write(file);
+    }
+
+   /**
+    * Write the report to a temporary file, then move it in place, so that a reader never
+    * sees half a report
+    */
+    private synchronized void write(String file) {
+        Path path = Paths.get(file).toAbsolutePath();
+        try {
+            Path temp = Files.createTempFile(path.getParent(), "metrics", ".tmp");
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) { out.write(json()); }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + file + "! " + e.toString());
+        }
+    } // end write
+
+   /**
+    * The report, as JSON. Times are in mS
+    */
+    String json() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"elapsed_ms\":").append(System.currentTimeMillis() - started)
+            .append(",\"links_crawled\":").append(crawler.linksCrawled())
+            .append(",\"emails\":").append(crawler.emailsFound())
+            .append(",\"phases\":{");
+        for (Phase phase : Phase.values()) {
+            Histogram h = histograms[phase.ordinal()];
+            long count = h.count.sum();
+            if (phase.ordinal() > 0) { json.append(','); }
+            json.append('"').append(phase.name().toLowerCase(Locale.ROOT)).append("\":{\"count\":").append(count)
+                .append(",\"total_ms\":").append(ms(h.total.sum()))
+                .append(",\"mean_ms\":").append(ms(count > 0 ? h.total.sum() / count : 0))
+                .append(",\"p50_ms\":").append(ms(h.percentile(50)))
+                .append(",\"p90_ms\":").append(ms(h.percentile(90)))
+                .append(",\"p99_ms\":").append(ms(h.percentile(99)))
+                .append(",\"max_ms\":").append(ms(h.max.get())).append('}');
+        }
+        return json.append("}}\n").toString();
+    } // end json
+
+   /**
+    * Print the phases in a nice fashion, one per line
+    */
+    String summary() {
+        StringBuilder summary = new StringBuilder("Phases (count, total, p50, p99, max in mS):");
+        for (Phase phase : Phase.values()) {
+            Histogram h = histograms[phase.ordinal()];
+            summary.append('\n').append(Crawler.MARGIN).append(String.format(Locale.ROOT, "%-7s %8d %12s %10s %10s %10s",
+                phase.name().toLowerCase(Locale.ROOT), h.count.sum(), ms(h.total.sum()), ms(h.percentile(50)),
+                ms(h.percentile(99)), ms(h.max.get())));
+        }
+        return summary.toString();
+    }
+
+    private static String ms(long micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+    }
+
+   /**
+    * The bucket of <code>micros</code>: values under 16 have one each, then each power of
+    * two is cut in 16 buckets
+    */
+    static int bucket(long micros) {
+        if (micros < (1 << SUB_BITS)) { return (int) Math.max(micros, 0); }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+   /**
+    * The smallest value falling in <code>bucket</code>
+    */
+    static long lowest(int bucket) {
+        if (bucket < (1 << SUB_BITS)) { return bucket; }
+        int exponent = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        long sub = bucket & ((1 << SUB_BITS) - 1);
+        return (1L << exponent) | (sub << (exponent - SUB_BITS));
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * Histogram counts timings in buckets, and keeps their total and maximum
+    */
+    private static class Histogram {
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            counts.incrementAndGet(bucket(micros));
+            count.increment();
+            total.add(micros);
+            if (micros > max.get()) { max.accumulateAndGet(micros, Math::max); }
+        }
+
+        long percentile(double p) {
+            long count = 0;
+            for (int b = 0; b < BUCKETS; b++) { count += counts.get(b); }
+            long rank = (long) Math.ceil(count * p / 100.0);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts.get(b);
+                if (seen >= rank && seen > 0) { return Math.min(lowest(b), max.get()); }
+            }
+            return 0;
+        }
+    } // end class Histogram
+
+   /**
+    * PhaseEvent is the JFR event of one phase of the crawl of one page
+    */
+    @Name("zedbit.mailx.Phase")
+    @Label("Crawl Phase")
+    @Category("Mailx")
+    @Description("A phase of the crawl of a page")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String name;
+
+        @Label("Page")
+        String url;
+
+        transient Phase phase;
+        transient long nanos;
+    } // end class PhaseEvent
+
+} // end class Metrics
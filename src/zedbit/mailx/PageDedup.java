@@ -0,0 +1,229 @@
+package zedbit.mailx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * <p>PageDedup tells when a rendered page shows the same content as a page already
+ * traversed under another url: an Angular route reached again by a click, a query string
+ * variant, a session id in the url. Such a page is neither searched nor are its links
+ * expanded again.</p>
+ *
+ * <p>Each page gets a <code>Fingerprint</code> of its text: an exact hash of its words, and
+ * a 64 bit SimHash of its word pairs, in which pages that differ in a few words differ in a
+ * few bits. A page is an exact duplicate if its hash was seen before, and a near duplicate
+ * if a SimHash within <code>distance</code> bits was seen, for a page whose text holding
+ * '@'s was the same. The latter keeps pages that differ only in the emails they show, as
+ * the profile pages of a CMS do, from being taken for duplicates.</p>
+ *
+ * <p>Near SimHashes are found as Manku et al. do: the 64 bits are cut in distance + 1 bands,
+ * and two SimHashes within distance bits agree on at least one whole band. Each band is a
+ * map from its bits to the pages having them, so only pages sharing a band are compared.</p>
+ *
+ * @author Manuel Mendez
+ */
+class PageDedup {
+
+    // Most bits near duplicates differ in, unless set otherwise
+    static final int DISTANCE = 3;
+
+    // Most differing bits that can be asked for, as each band must be 2 bits or more
+    static final int MAX_DISTANCE = 31;
+
+    private final int distance;
+    private final int bandBits;
+
+    // First page seen with each exact hash
+    private final ConcurrentMap<Long, String> exact = new ConcurrentHashMap<Long, String>();
+
+    // Pages seen, by the bits of their SimHash in each band
+    private final List<ConcurrentMap<Long, Queue<Seen>>> bands = new ArrayList<ConcurrentMap<Long, Queue<Seen>>>();
+
+    // What was found
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder exactDuplicates = new LongAdder();
+    private final LongAdder nearDuplicates = new LongAdder();
+
+
+   /**
+    * Build a dedup taking pages within <code>distance</code> bits for near duplicates
+    */
+    PageDedup(int distance) {
+        this.distance = distance;
+        this.bandBits = Long.SIZE / (distance + 1);
+        for (int b = 0; b <= distance; b++) { bands.add(new ConcurrentHashMap<Long, Queue<Seen>>()); }
+    }
+
+   /**
+    * Check the page at <code>pageUrl</code> whose text made <code>print</code>. Returns
+    * the url of the page it duplicates, or null if it is new, in which case it is
+    * remembered.
+    */
+    String check(Fingerprint print, String pageUrl) {
+        pages.increment();
+
+        // Exact first, it is one lookup
+        String original = exact.putIfAbsent(print.exact(), pageUrl);
+        if (original != null) {
+            exactDuplicates.increment();
+            return original;
+        }
+
+        // Then near, among the pages sharing a band
+        long simHash = print.simHash();
+        for (int b = 0; b <= distance; b++) {
+            Queue<Seen> sharing = bands.get(b).get(band(simHash, b));
+            if (sharing == null) { continue; }
+            for (Seen seen : sharing) {
+                if (seen.candidates == print.candidates && Long.bitCount(seen.simHash ^ simHash) <= distance) {
+                    nearDuplicates.increment();
+                    return seen.url;
+                }
+            }
+        }
+
+        Seen seen = new Seen(simHash, print.candidates, pageUrl);
+        for (int b = 0; b <= distance; b++) {
+            bands.get(b).computeIfAbsent(band(simHash, b), (k) -> new ConcurrentLinkedQueue<Seen>()).add(seen);
+        }
+        return null;
+    } // end check
+
+   /**
+    * The bits of band <code>b</code> of <code>simHash</code>. The last band takes the bits left
+    */
+    private long band(long simHash, int b) {
+        long bits = simHash >>> (b * bandBits);
+        return (b == distance) ? bits : bits & ((1L << bandBits) - 1);
+    }
+
+   /**
+    * Add what <code>other</code> found, i.e. a site of a batch once it is crawled, to the
+    * counts of this one
+    */
+    void tally(PageDedup other) {
+        pages.add(other.pages.sum());
+        exactDuplicates.add(other.exactDuplicates.sum());
+        nearDuplicates.add(other.nearDuplicates.sum());
+    }
+
+   /**
+    * Print what was found in a nice fashion
+    */
+    String summary() {
+        return ("Duplicate pages: " + exactDuplicates.sum() + " exact, " + nearDuplicates.sum()
+            + " near (within " + distance + " bits), out of " + pages.sum() + " pages fingerprinted");
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * Seen is a page remembered for near duplicates
+    */
+    private static class Seen {
+        final long simHash;
+        final long candidates;
+        final String url;
+
+        Seen(long simHash, long candidates, String url) {
+            this.simHash = simHash;
+            this.candidates = candidates;
+            this.url = url;
+        }
+    }
+
+   /**
+    * <p>Fingerprint is built from the text of a page, a piece at a time, as it is read. The
+    * text is taken as words, runs of letters and digits, ignoring case, so that markup and
+    * whitespace do not matter. Pieces holding an '@' are hashed whole but for whitespace,
+    * punctuation included, so that pages showing different emails never match.</p>
+    */
+    static class Fingerprint {
+
+        long content = 0xcbf29ce484222325L; // Exact hash of all words, in order
+        long candidates; // Hash of the pieces of text holding an '@', punctuation included
+        private final int[] weights = new int[Long.SIZE]; // SimHash votes, per bit
+        private long previous; // Hash of the word before, for word pairs
+
+       /**
+        * Add a piece of the page's text
+        */
+        void add(CharSequence text) {
+            int i = 0;
+            while (i < text.length()) {
+                if (Character.isLetterOrDigit(text.charAt(i)) == false) {
+                    i++;
+                    continue;
+                }
+                long word = 0xcbf29ce484222325L;
+                while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                    word ^= Character.toLowerCase(text.charAt(i++));
+                    word *= 0x100000001b3L;
+                }
+                content = (content ^ word) * 0x100000001b3L;
+                vote(mix(previous * 31 + word));
+                previous = word;
+            }
+            if (indexOf(text, '@') >= 0) {
+                long piece = 0xcbf29ce484222325L;
+                for (int c = 0; c < text.length(); c++) {
+                    if (Character.isWhitespace(text.charAt(c)) == true) { continue; }
+                    piece = (piece ^ Character.toLowerCase(text.charAt(c))) * 0x100000001b3L;
+                }
+                candidates = mix(candidates ^ piece);
+            }
+        } // end add
+
+       /**
+        * The exact hash of the page: its words, and its pieces holding an '@' as they are
+        */
+        long exact() {
+            return content ^ mix(candidates);
+        }
+
+       /**
+        * The SimHash of the word pairs added so far
+        */
+        long simHash() {
+            long simHash = 0;
+            for (int b = 0; b < Long.SIZE; b++) {
+                if (weights[b] > 0) { simHash |= 1L << b; }
+            }
+            return simHash;
+        }
+
+        private void vote(long feature) {
+            for (int b = 0; b < Long.SIZE; b++) {
+                weights[b] += ((feature >>> b) & 1) != 0 ? 1 : -1;
+            }
+        }
+
+        private static int indexOf(CharSequence text, char c) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == c) { return i; }
+            }
+            return -1;
+        }
+
+       /**
+        * Spread the bits of FNV, whose low bits are weak, as UrlIndex does
+        */
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+    } // end class Fingerprint
+
+} // end class PageDedup
@@ -0,0 +1,318 @@
+package zedbit.mailx;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+
+
+/**
+ * <p>Politeness stands in front of every request the crawl sends, from the browsers and
+ * from the fast path, and keeps each host from being sent more than it can take. Each host
+ * has a limit of requests in flight, and optionally a rate, as a token bucket.</p>
+ *
+ * <p>The limit adapts as TCP's congestion window does, additively up and multiplicatively
+ * down (AIMD): each request answered in good time raises it by 1/limit, so by about one per
+ * round of requests, up to the most allowed. A 429 or 503, a failed connection, or latency
+ * growing well over the best the host has shown, halves it, at most once per
+ * <code>COOLDOWN</code>. A 429 or 503 also holds the host back for as long as its Retry-After
+ * says, or else for an exponential backoff.</p>
+ *
+ * <p>Requests answered 429 or 503 are sent again, up to <code>RETRIES</code> times, once
+ * the host may be asked again. If it still refuses a page, the request fails with an
+ * IOException, as any unreachable page does, and the crawl retries the page later. What a
+ * browser asks for while loading a page, its scripts, styles and XHR, is answered with the
+ * refusal instead, as the browser would be, so that one of them does not fail the page.</p>
+ *
+ * @author Manuel Mendez
+ */
+class Politeness {
+
+    // How many times a request refused with 429 or 503 is sent again
+    static final int RETRIES = 2;
+
+    // How much latency over the host's best is taken as a sign of load
+    static final double LATENCY_FACTOR = 3.0;
+
+    // Least time between two decreases of the limit of a host (mS)
+    static final long COOLDOWN = 1000;
+
+    // Backoff, doubled with each failure, and the most a host is held back for (mS)
+    static final long BACKOFF = 500;
+    static final long MAX_BACKOFF = 60000;
+
+    private final int maxPerHost; // Most requests in flight to a host
+    private final double rate; // Most requests per second to a host, 0 for no limit
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<String, Host>();
+
+    // Set on a worker's thread while it loads a page, until the browser asks for the page itself
+    private final ThreadLocal<Boolean> loadingPage = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    // What politeness did
+    final AtomicInteger throttled = new AtomicInteger(); // Responses 429 or 503
+    final AtomicInteger resent = new AtomicInteger(); // Requests sent again after those
+    final AtomicInteger waited = new AtomicInteger(); // Requests that had to wait for their host
+
+
+   /**
+    * Allow up to <code>maxPerHost</code> requests in flight and <code>rate</code> requests
+    * a second, unless 0, to each host
+    */
+    Politeness(int maxPerHost, double rate) {
+        this.maxPerHost = maxPerHost;
+        this.rate = rate;
+    }
+
+   /**
+    * Install politeness in <code>webClient</code>, next to the network, so that what the
+    * other wrappers answer from memory or disk is not counted
+    */
+    void install(WebClient webClient) {
+        new PoliteWebConnection(webClient);
+    }
+
+   /**
+    * Call loadingPage(true) before a browser loads a page on this thread, and
+    * loadingPage(false) afterwards. The next request the browser sends is taken to be the
+    * page, whose refusal fails the load.
+    */
+    void loadingPage(boolean loading) {
+        loadingPage.set(loading);
+    }
+
+   /**
+    * Wait until <code>url</code>'s host may be sent a request, and count it in flight.
+    * Every acquire() must be matched by a call to <code>release()</code>.
+    */
+    void acquire(URL url) throws IOException {
+        try { host(url).acquire(); }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + url.getHost());
+        }
+    }
+
+   /**
+    * A request to <code>url</code> was answered with <code>status</code>, -1 if it failed,
+    * after <code>nanos</code>. <code>retryAfter</code> is the Retry-After header, if any.
+    * Returns true if the request is to be sent again.
+    */
+    boolean release(URL url, int status, long nanos, String retryAfter, int attempt) {
+        boolean refused = (status == 429 || status == 503);
+        if (refused) { throttled.incrementAndGet(); }
+        host(url).release(status, nanos, refused ? retryAfter(retryAfter) : -1);
+        if (refused && attempt < RETRIES) {
+            resent.incrementAndGet();
+            Crawler.printlnV(() -> Crawler.MARGIN + url.getHost() + " answered " + status + ", sending again once allowed");
+            return true;
+        }
+        return false;
+    }
+
+   /**
+    * GET <code>pageUrl</code> with <code>httpClient</code>, once <code>politeness</code>, if
+    * not null, allows it, and again after a 429 or 503 as it decides. Throws IOException
+    * when the host cannot be reached or still refuses. The response is the caller's to close.
+    */
+    static CloseableHttpResponse get(CloseableHttpClient httpClient, String pageUrl, Politeness politeness) throws IOException {
+        URL url = new URL(pageUrl);
+        for (int attempt = 0; ; attempt++) {
+            if (politeness != null) { politeness.acquire(url); }
+            long start = System.nanoTime();
+            boolean released = (politeness == null);
+            CloseableHttpResponse response = null;
+            try {
+                response = httpClient.execute(new HttpGet(pageUrl));
+                int status = response.getStatusLine().getStatusCode();
+                if (politeness != null) {
+                    Header retryAfter = response.getFirstHeader("Retry-After");
+                    released = true;
+                    if (politeness.release(url, status, System.nanoTime() - start, (retryAfter != null) ? retryAfter.getValue() : null, attempt) == true) {
+                        response.close();
+                        continue;
+                    }
+                }
+                if (status == 429 || status == 503) {
+                    response.close();
+                    throw new IOException(pageUrl + " answered " + status);
+                }
+                return response;
+            } finally {
+                // Whatever failed, the host's slot is given back
+                if (released == false) {
+                    politeness.release(url, -1, System.nanoTime() - start, null, RETRIES);
+                    if (response != null) { response.close(); }
+                }
+            }
+        }
+    } // end get
+
+   /**
+    * How long to wait before the <code>attempt</code>th retry of something that failed,
+    * doubling each time up to <code>MAX_BACKOFF</code>, with some jitter (mS)
+    */
+    static long backoff(int attempt) {
+        long delay = Math.min(MAX_BACKOFF, BACKOFF << Math.min(attempt - 1, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+   /**
+    * Print what politeness did, and the limit of each host, in a nice fashion
+    */
+    String summary() {
+        StringBuilder summary = new StringBuilder("Politeness: " + waited.get() + " requests waited for their host, "
+            + throttled.get() + " throttled (429/503), " + resent.get() + " sent again");
+        hosts.forEach((name, host) -> summary.append('\n').append(Crawler.MARGIN).append(name).append(": ").append(host));
+        return summary.toString();
+    }
+
+    private Host host(URL url) {
+        String name = url.getHost().toLowerCase(Locale.ROOT) + ((url.getPort() != -1) ? ":" + url.getPort() : "");
+        return hosts.computeIfAbsent(name, (n) -> new Host());
+    }
+
+   /**
+    * How long a Retry-After header asks to wait, in seconds or until a date, -1 if it
+    * does not say (mS)
+    */
+    static long retryAfter(String header) {
+        if (header == null) { return -1; }
+        header = header.trim();
+        try { return Math.min(MAX_BACKOFF, Math.max(0, Long.parseLong(header) * 1000)); }
+        catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(header);
+            if (date == null) { return -1; }
+            return Math.min(MAX_BACKOFF, Math.max(0, date.getTime() - System.currentTimeMillis()));
+        }
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * <p>Host keeps the limit, the requests in flight, the tokens and the latency of one
+    * host. Waiting workers are woken whenever any of these changes.</p>
+    */
+    private class Host {
+
+        private double limit = 1; // Starts low, as TCP's slow start does
+        private int inFlight;
+        private double tokens = 1;
+        private long refilled = System.nanoTime();
+        private long heldUntil = System.nanoTime(); // nanoTime before which nothing is sent
+        private int failures; // In a row, for backoff
+        private double latency; // Smoothed, in mS
+        private double best; // Lowest smoothed latency seen
+        private long decreased = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(COOLDOWN); // nanoTime of the last decrease
+
+        synchronized void acquire() throws InterruptedException {
+            boolean counted = false;
+            while (true) {
+                long now = System.nanoTime();
+                long wait = 0;
+                if (heldUntil - now > 0) {
+                    wait = heldUntil - now;
+                } else if (inFlight >= (int) limit) {
+                    wait = TimeUnit.MILLISECONDS.toNanos(Frontier.POLL_WAIT);
+                } else if (rate > 0) {
+                    tokens = Math.min(Math.max(1, rate), tokens + (now - refilled) * rate / 1e9);
+                    refilled = now;
+                    if (tokens < 1) { wait = (long) ((1 - tokens) / rate * 1e9); }
+                }
+                if (wait <= 0) { break; }
+                if (counted == false) {
+                    waited.incrementAndGet();
+                    counted = true;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+            }
+            if (rate > 0) { tokens -= 1; }
+            inFlight++;
+        } // end acquire
+
+        synchronized void release(int status, long nanos, long retryAfter) {
+            inFlight--;
+            long now = System.nanoTime();
+            if (status < 0 || status == 429 || status == 503) {
+                failures++;
+                decrease(now);
+                long hold = (retryAfter >= 0) ? retryAfter : backoff(failures);
+                heldUntil = Math.max(heldUntil, now + TimeUnit.MILLISECONDS.toNanos(hold));
+            } else {
+                failures = 0;
+                double ms = nanos / 1e6;
+                latency = (latency == 0) ? ms : latency * 0.8 + ms * 0.2;
+                // The best creeps up, so that a host lastingly slower is taken as it is
+                best = (best == 0 || latency < best) ? latency : best + (latency - best) * 0.01;
+                if (latency > best * LATENCY_FACTOR && latency > 10) { decrease(now); }
+                else { limit = Math.min(maxPerHost, limit + 1 / limit); }
+            }
+            notifyAll();
+        } // end release
+
+        private void decrease(long now) {
+            if (now - decreased < TimeUnit.MILLISECONDS.toNanos(COOLDOWN)) { return; }
+            limit = Math.max(1, limit / 2);
+            decreased = now;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.ROOT, "limit %.1f of %d, latency %.1f mS, best %.1f mS", limit, maxPerHost, latency, best);
+        }
+
+    } // end class Host
+
+   /**
+    * <p>PoliteWebConnection sends each request of a browser once its host allows it, and
+    * again after a 429 or 503, as <code>release()</code> decides. Only the page a worker
+    * is loading fails when still refused.</p>
+    */
+    private class PoliteWebConnection extends WebConnectionWrapper {
+
+        PoliteWebConnection(WebClient webClient) {
+            super(webClient);
+        }
+
+        @Override
+        public WebResponse getResponse(WebRequest request) throws IOException {
+            URL url = request.getUrl();
+            boolean page = loadingPage.get();
+            loadingPage.set(false);
+            for (int attempt = 0; ; attempt++) {
+                acquire(url);
+                long start = System.nanoTime();
+                boolean released = false;
+                try {
+                    WebResponse response = super.getResponse(request);
+                    int status = response.getStatusCode();
+                    released = true;
+                    if (release(url, status, System.nanoTime() - start, response.getResponseHeaderValue("Retry-After"), attempt) == false) {
+                        if (page == true && (status == 429 || status == 503)) { throw new IOException(url + " answered " + status); }
+                        return response;
+                    }
+                } finally {
+                    // Whatever failed, the host's slot is given back
+                    if (released == false) { release(url, -1, System.nanoTime() - start, null, RETRIES); }
+                }
+            }
+        } // end getResponse
+
+    } // end class PoliteWebConnection
+
+} // end class Politeness
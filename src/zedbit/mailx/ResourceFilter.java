@@ -0,0 +1,227 @@
+package zedbit.mailx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebResponseData;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+
+
+/**
+ * <p>ResourceFilter stands between each worker's browser and the network, and keeps it from
+ * fetching what the crawl has no use for. Requests matching one of its <code>Rule</code>s are
+ * answered with an empty page, without going out: by default images, fonts and media, and
+ * stylesheets from another host. Scripts, XHR and JSON from other hosts go through, as the
+ * pages of this website may need them to run and to show their content.</p>
+ *
+ * <p>The scripts and stylesheets that get through are kept in memory, shared by all workers,
+ * so that the same bundle used by every route of a site is fetched once per crawl rather than
+ * once per page. The oldest used are evicted once they take more than the bytes allowed.</p>
+ *
+ * @author Manuel Mendez
+ */
+class ResourceFilter {
+
+    // Memory for scripts and stylesheets, unless set otherwise (MB)
+    static final int SCRIPT_CACHE = 32;
+
+    // Images, fonts and media, by their extension, as skipP does for links
+    static final Pattern mediaP = Pattern.compile(
+        ".*\\.(ico|png|jpg|jpeg|gif|webp|svg|bmp|woff|woff2|ttf|otf|eot|mp3|mp4|m4a|ogg|ogv|wav|webm|avi|mov|flv|swf)$",
+        Pattern.CASE_INSENSITIVE);
+
+    // Responses kept in memory, by their extension
+    static final Pattern sharedP = Pattern.compile(".*\\.(js|css)$", Pattern.CASE_INSENSITIVE);
+
+   /**
+    * Rule tells whether a request of a browser crawling the website on <code>host</code>
+    * is to be blocked
+    */
+    interface Rule {
+        boolean blocks(WebRequest request, String host);
+    }
+
+    private final List<Rule> rules = new ArrayList<Rule>();
+    private final Shared shared;
+
+    // What the filter did
+    final AtomicInteger blocked = new AtomicInteger(); // Requests not sent
+    final AtomicInteger hits = new AtomicInteger(); // Scripts and stylesheets served from memory
+    final AtomicInteger misses = new AtomicInteger(); // Scripts and stylesheets fetched
+
+
+   /**
+    * Build a filter keeping up to <code>cacheBytes</code> of scripts and stylesheets in memory
+    */
+    ResourceFilter(long cacheBytes) {
+        shared = new Shared(cacheBytes);
+    }
+
+   /**
+    * A filter with the default rules: no images, fonts or media, and no stylesheets from
+    * hosts other than that of the website crawled, told by their extension or by the Accept
+    * header the browser sends for them
+    */
+    static ResourceFilter defaults(long cacheBytes) {
+        ResourceFilter filter = new ResourceFilter(cacheBytes);
+        filter.add((request, host) -> mediaP.matcher(request.getUrl().getPath()).matches());
+        filter.add((request, host) -> {
+            URL url = request.getUrl();
+            if (url.getHost().equalsIgnoreCase(host) == true) { return false; }
+            String accept = request.getAdditionalHeaders().get("Accept");
+            return url.getPath().toLowerCase(Locale.ROOT).endsWith(".css")
+                || (accept != null && accept.toLowerCase(Locale.ROOT).startsWith("text/css"));
+        });
+        return filter;
+    }
+
+   /**
+    * Add a rule, requests matching any rule are blocked
+    */
+    void add(Rule rule) {
+        rules.add(rule);
+    }
+
+   /**
+    * Install the filter in <code>webClient</code>, in front of its connection, for the
+    * crawl of the website on <code>host</code>
+    */
+    void install(WebClient webClient, String host) {
+        new FilteringWebConnection(webClient, host);
+    }
+
+   /**
+    * Print what the filter did in a nice fashion
+    */
+    String summary() {
+        return ("Resources: " + blocked.get() + " requests blocked, " + hits.get() + " scripts and stylesheets from memory, "
+            + misses.get() + " fetched, " + shared.evicted + " evicted");
+    }
+
+    private boolean blocks(WebRequest request, String host) {
+        for (Rule rule : rules) {
+            if (rule.blocks(request, host)) { return true; }
+        }
+        return false;
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * <p>FilteringWebConnection answers blocked requests with an empty page, and shared
+    * resources from memory when it can.</p>
+    */
+    private class FilteringWebConnection extends WebConnectionWrapper {
+
+        private final String host; // Of the website crawled
+
+        FilteringWebConnection(WebClient webClient, String host) {
+            super(webClient);
+            this.host = host;
+        }
+
+        @Override
+        public WebResponse getResponse(WebRequest request) throws IOException {
+            if (blocks(request, host)) {
+                blocked.incrementAndGet();
+                Crawler.printlnT(() -> Crawler.MARGIN + "Blocked " + request.getUrl());
+                List<NameValuePair> headers = new ArrayList<NameValuePair>();
+                headers.add(new NameValuePair("Content-Type", "text/html"));
+                return new WebResponse(new WebResponseData(new byte[0], 200, "OK", headers), request, 0);
+            }
+
+            final String url = request.getUrl().toString();
+            if (request.getHttpMethod() != HttpMethod.GET || sharedP.matcher(request.getUrl().getPath()).matches() == false) {
+                return super.getResponse(request);
+            }
+            Held held = shared.get(url);
+            if (held != null) {
+                hits.incrementAndGet();
+                return new WebResponse(new WebResponseData(held.body, 200, held.statusMessage, held.headers), request, 0);
+            }
+
+            misses.incrementAndGet();
+            WebResponse response = super.getResponse(request);
+            if (response.getStatusCode() == 200) {
+                // The body is kept as HtmlUnit hands it to us, decoded
+                List<NameValuePair> headers = new ArrayList<NameValuePair>();
+                for (NameValuePair header : response.getResponseHeaders()) {
+                    if (header.getName().equalsIgnoreCase("Content-Encoding") || header.getName().equalsIgnoreCase("Content-Length")) { continue; }
+                    headers.add(header);
+                }
+                try (InputStream body = response.getContentAsStream()) {
+                    shared.put(url, new Held(IOUtils.toByteArray(body), response.getStatusMessage(), headers));
+                }
+            }
+            return response;
+        } // end getResponse
+
+    } // end class FilteringWebConnection
+
+   /**
+    * Held is a response kept in memory, each use gets its own WebResponseData
+    */
+    private static class Held {
+        final byte[] body;
+        final String statusMessage;
+        final List<NameValuePair> headers;
+
+        Held(byte[] body, String statusMessage, List<NameValuePair> headers) {
+            this.body = body;
+            this.statusMessage = statusMessage;
+            this.headers = headers;
+        }
+    }
+
+   /**
+    * <p>Shared holds responses by url, least recently used first, and evicts from the
+    * front once their bodies take more than <code>capacity</code> bytes.</p>
+    */
+    private static class Shared {
+
+        private final long capacity;
+        private final LinkedHashMap<String, Held> responses = new LinkedHashMap<String, Held>(64, 0.75f, true);
+        private long bytes;
+        private int evicted;
+
+        Shared(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized Held get(String url) {
+            return responses.get(url);
+        }
+
+        synchronized void put(String url, Held held) {
+            if (held.body.length > capacity) { return; } // Would evict all and still not fit
+            Held old = responses.put(url, held);
+            if (old != null) { bytes -= old.body.length; }
+            bytes += held.body.length;
+            Iterator<Map.Entry<String, Held>> eldest = responses.entrySet().iterator();
+            while (bytes > capacity && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().body.length;
+                eldest.remove();
+                evicted++;
+            }
+        } // end put
+
+    } // end class Shared
+
+} // end class ResourceFilter
@@ -0,0 +1,239 @@
+package zedbit.mailx;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * <p>Results collects the emails found by all workers. Each address is kept once, case
+ * insensitively, with the page where it was first seen and how many times it was seen.</p>
+ *
+ * <p>The first sighting of each address can also be streamed to a file, as JSON lines or
+ * as CSV. Records are queued and written by a thread of their own, a batch at a time, so
+ * that workers never wait on the disk. A sorted report of all addresses is printed at the
+ * end of the crawl.</p>
+ *
+ * @author Manuel Mendez
+ */
+class Results {
+
+    // The formats results can be written in
+    enum Format { JSONL, CSV }
+
+    // Most records written at once (records), and longest a record waits to be written (mS)
+    static final int BATCH = 256;
+    static final int FLUSH_WAIT = 1000;
+
+    // Addresses found, by their lower case form
+    private final ConcurrentMap<String, Hit> hits = new ConcurrentHashMap<String, Hit>();
+
+    // Writing to the output file, if any, and whether it is ours to close
+    private final BatchWriter writer;
+    private final boolean owner;
+
+
+   /**
+    * Build a results collector, writing to <code>outFile</code> in <code>format</code>,
+    * or to no file if null.
+    */
+    Results(String outFile, Format format) throws IOException {
+        writer = (outFile != null) ? new BatchWriter(outFile, format) : null;
+        owner = true;
+    }
+
+   /**
+    * Build a results collector of its own, i.e. for one site of a batch, writing to the
+    * same file as <code>sharing</code>, which closes it
+    */
+    Results(Results sharing) {
+        writer = sharing.writer;
+        owner = false;
+    }
+
+   /**
+    * Record that <code>email</code> was found at <code>pageUrl</code>. Returns true
+    * the first time an address is found.
+    */
+    boolean add(String email, String pageUrl) {
+        Hit hit = new Hit(email, pageUrl);
+        Hit first = hits.putIfAbsent(email.toLowerCase(Locale.ROOT), hit);
+        if (first != null) {
+            first.count.incrementAndGet();
+            return false;
+        }
+        if (writer != null) { writer.queue(hit); }
+        return true;
+    }
+
+   /**
+    * Fold in the addresses <code>other</code> found, i.e. a site of a batch once it is
+    * crawled, without writing them again. Addresses found by both add up their sightings.
+    */
+    void merge(Results other) {
+        other.hits.forEach((key, hit) -> {
+            Hit first = hits.putIfAbsent(key, hit);
+            if (first != null) { first.count.addAndGet(hit.count.get()); }
+        });
+    }
+
+   /**
+    * How many distinct addresses were found
+    */
+    int size() {
+        return hits.size();
+    }
+
+   /**
+    * All distinct addresses, sorted
+    */
+    List<Hit> sorted() {
+        List<Hit> all = new ArrayList<Hit>(hits.values());
+        all.sort((a, b) -> a.email.compareToIgnoreCase(b.email));
+        return all;
+    }
+
+   /**
+    * Write out what is still queued, and close the file, if ours
+    */
+    void close() {
+        if (writer != null && owner == true) { writer.close(); }
+    }
+
+   /**
+    * A report of all addresses found, sorted, one per line
+    */
+    String report() {
+        StringBuilder report = new StringBuilder();
+        sorted().forEach((i) -> {
+            report.append(Crawler.MARGIN).append(i.email).append("  (seen ").append(i.count.get())
+                .append(i.count.get() == 1 ? " time" : " times").append(", first at ").append(i.firstPage).append(")\n");
+        });
+        return report.toString();
+    }
+
+   /**
+    * Parse the name of a format, as given at the command line. Returns null if unknown
+    */
+    static Format parseFormat(String name) {
+        for (Format f : Format.values()) {
+            if (f.name().equalsIgnoreCase(name)) { return f; }
+        }
+        return null;
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * Hit is an address found, where it was first seen, and how many times
+    */
+    static class Hit {
+        final String email;
+        final String firstPage;
+        final long firstSeen = System.currentTimeMillis();
+        final AtomicInteger count = new AtomicInteger(1);
+
+        Hit(String email, String firstPage) {
+            this.email = email;
+            this.firstPage = firstPage;
+        }
+    }
+
+   /**
+    * <p>BatchWriter writes hits to a file from a thread of its own. It takes whatever has
+    * been queued, up to a batch, writes it through one buffer, and flushes once per batch.</p>
+    */
+    private static class BatchWriter implements Runnable {
+
+        private final BlockingQueue<Hit> queue = new LinkedBlockingQueue<Hit>();
+        private final Writer out;
+        private final Format format;
+        private final Thread thread;
+        private volatile boolean closing;
+
+        BatchWriter(String outFile, Format format) throws IOException {
+            this.out = Files.newBufferedWriter(Paths.get(outFile), StandardCharsets.UTF_8);
+            this.format = format;
+            if (format == Format.CSV) { out.write("email,page,first_seen\n"); }
+            thread = new Thread(this, "mailx-results");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void queue(Hit hit) {
+            queue.add(hit);
+        }
+
+        @Override
+        public void run() {
+            List<Hit> batch = new ArrayList<Hit>(BATCH);
+            try {
+                while (closing == false || queue.isEmpty() == false) {
+                    Hit first = queue.poll(FLUSH_WAIT, TimeUnit.MILLISECONDS);
+                    if (first == null) { continue; }
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH - 1);
+                    for (Hit hit : batch) { write(hit); }
+                    out.flush();
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                System.err.println("Could not write results! " + e.toString());
+            }
+        } // end run
+
+        private void write(Hit hit) throws IOException {
+            if (format == Format.JSONL) {
+                out.write("{\"email\":\"" + json(hit.email) + "\",\"page\":\"" + json(hit.firstPage)
+                    + "\",\"first_seen\":" + hit.firstSeen + "}\n");
+            } else {
+                out.write(csv(hit.email) + "," + csv(hit.firstPage) + "," + hit.firstSeen + "\n");
+            }
+        }
+
+        void close() {
+            closing = true;
+            try { thread.join(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            try { out.close(); }
+            catch (IOException e) { System.err.println("Could not close results! " + e.toString()); }
+        }
+    } // end class BatchWriter
+
+   /**
+    * Escape a string for a JSON string literal
+    */
+    static String json(String s) {
+        StringBuilder out = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') { out.append('\\').append(c); }
+            else if (c < 0x20) { out.append(String.format("\\u%04x", (int) c)); }
+            else { out.append(c); }
+        }
+        return out.toString();
+    }
+
+   /**
+    * Quote a string as a CSV field, if it needs it
+    */
+    static String csv(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) { return s; }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+} // end class Results
@@ -0,0 +1,142 @@
+package zedbit.mailx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+
+/**
+ * <p>Robots holds what the robots.txt of a website asks of Mailx: the paths it may not
+ * crawl, and where its sitemaps are. Rules are taken from the group naming Mailx, or else
+ * from the group for every crawler, *, as RFC 9309 has it.</p>
+ *
+ * <p>The rule with the longest pattern matching the path and query of an url decides
+ * whether it may be crawled; on a tie, Allow wins. Patterns may hold * for any characters,
+ * and end with $ to match the end of the url only. Without a matching rule, all is
+ * allowed.</p>
+ *
+ * @author Manuel Mendez
+ */
+class Robots {
+
+    // The name Mailx goes by in robots.txt
+    static final String AGENT = "mailx";
+
+    // Nothing may be crawled, as when robots.txt cannot be reached
+    static final Robots DISALLOW_ALL = new Robots();
+    static {
+        DISALLOW_ALL.rules.add(new Rule("/", false));
+    }
+
+    private final List<Rule> rules = new ArrayList<Rule>(); // Of the group that applies to us
+    final List<String> sitemaps = new ArrayList<String>(); // As given, for all crawlers
+
+
+   /**
+    * Parse the <code>text</code> of a robots.txt
+    */
+    static Robots parse(String text) {
+        Robots ours = new Robots(); // The rules of a group naming Mailx
+        Robots any = new Robots(); // The rules of a group for *
+        boolean named = false; // Have we seen a group naming Mailx?
+        boolean inOurs = false, inAny = false; // Does the group being read apply?
+        boolean agents = false; // Are we reading the user-agent lines starting a group?
+
+        for (String line : text.split("\r\n|\r|\n")) {
+            int hash = line.indexOf('#');
+            if (hash >= 0) { line = line.substring(0, hash); }
+            int colon = line.indexOf(':');
+            if (colon < 0) { continue; }
+            String field = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+
+            if (field.equals("user-agent")) {
+                // Consecutive user-agent lines share the group that follows them
+                if (agents == false) { inOurs = inAny = false; }
+                agents = true;
+                String agent = value.toLowerCase(Locale.ROOT);
+                if (agent.equals("*")) { inAny = true; }
+                else if (agent.equals(AGENT) || agent.startsWith(AGENT + "/")) {
+                    inOurs = named = true;
+                }
+            } else if (field.equals("sitemap")) {
+                // Not part of any group
+                if (value.isEmpty() == false) { ours.sitemaps.add(value); }
+            } else {
+                agents = false;
+                if (field.equals("allow") == false && field.equals("disallow") == false) { continue; }
+                if (value.isEmpty()) { continue; } // An empty Disallow allows all
+                Rule rule = new Rule(value, field.equals("allow"));
+                if (inOurs) { ours.rules.add(rule); }
+                if (inAny) { any.rules.add(rule); }
+            }
+        }
+        if (named == false) { ours.rules.addAll(any.rules); }
+        return ours;
+    } // end parse
+
+   /**
+    * May the canonical <code>url</code> be crawled?
+    */
+    boolean allows(String url) {
+        if (rules.isEmpty()) { return true; }
+        String path = path(url);
+        Rule decides = null;
+        for (Rule rule : rules) {
+            if (rule.matches(path) == false) { continue; }
+            if (decides == null || rule.length > decides.length || (rule.length == decides.length && rule.allow)) {
+                decides = rule;
+            }
+        }
+        return decides == null || decides.allow;
+    } // end allows
+
+   /**
+    * How many rules apply to us
+    */
+    int size() {
+        return rules.size();
+    }
+
+   /**
+    * The path and query of <code>url</code>, / if none
+    */
+    private static String path(String url) {
+        int scheme = url.indexOf("://");
+        int slash = url.indexOf('/', (scheme < 0) ? 0 : scheme + 3);
+        return (slash < 0) ? "/" : url.substring(slash);
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * Rule is an Allow or Disallow line, its pattern made a regular expression
+    */
+    private static class Rule {
+        final Pattern pattern;
+        final int length; // Of the pattern as written, the longest match decides
+        final boolean allow;
+
+        Rule(String value, boolean allow) {
+            this.length = value.length();
+            this.allow = allow;
+            boolean anchored = value.endsWith("$");
+            if (anchored) { value = value.substring(0, value.length() - 1); }
+            StringBuilder regex = new StringBuilder();
+            String[] pieces = value.split("\\*", -1);
+            for (int p = 0; p < pieces.length; p++) {
+                if (p > 0) { regex.append(".*"); }
+                if (pieces[p].isEmpty() == false) { regex.append(Pattern.quote(pieces[p])); }
+            }
+            if (anchored == false) { regex.append(".*"); }
+            this.pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+
+        boolean matches(String path) {
+            return pattern.matcher(path).matches();
+        }
+    } // end class Rule
+
+} // end class Robots
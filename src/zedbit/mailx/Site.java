@@ -0,0 +1,106 @@
+package zedbit.mailx;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * <p>Site is the crawl of one website: where it starts, the uri its links are kept under,
+ * and all that its workers share while crawling it, i.e. its frontier, its url tracker,
+ * the emails found in it, its page fingerprints, its url templates, the routes taken and
+ * its robots.txt.</p>
+ *
+ * <p>What is not tied to one website, such as the fast path, the cache, the resource
+ * filter, politeness and the sitemap reader, is shared by all sites, and stays in <code>Crawler</code>. A batch
+ * crawl runs many sites at once, each with a Site of its own.</p>
+ *
+ * @author Manuel Mendez
+ */
+class Site {
+
+    // The uri of a seed, as processArgs() has always taken it
+    static final Pattern uriOnlyP = Pattern.compile("(^http://[^/]+/)(.*$)");
+
+    final String startPage; // Where the crawl begins, may be a URI or a page
+    final String uri; // The URI, links are kept to those under it
+    final Frontier frontier; // Static links waiting for a worker
+    final Crawler.UrlTracker tracker; // The urls queued, visited or errored out
+    final Results results; // The distinct emails found
+    final PageDedup dedup; // Pages fingerprinted so far, null if off
+    final UrlTemplates templates; // What its urls are made from, and what each yielded, null if off
+    final Set<String> routesSeen = ConcurrentHashMap.newKeySet(); // Route targets, and clicks, already taken
+    final Set<String> scanned = ConcurrentHashMap.newKeySet(); // Responses searched as text, by url
+    final Map<String, Integer> attempts = new ConcurrentHashMap<String, Integer>(); // Failures of pages being retried
+    final AtomicInteger linksCrawled = new AtomicInteger(); // How many links did we crawl?
+    volatile Robots robots; // What its robots.txt disallows, null if all is allowed
+
+
+   /**
+    * Build the crawl of the site at <code>startPage</code>, under <code>uri</code>, both
+    * canonical, keeping the emails found in <code>results</code>, as <code>config</code> says,
+    * until <code>deadline</code> in nanoTime, or 0 if none
+    */
+    Site(String startPage, String uri, Results results, CrawlConfig config, long deadline) {
+        this.startPage = startPage;
+        this.uri = uri;
+        this.results = results;
+        this.frontier = new Frontier(config.frontierMemory, config.maxPages, deadline);
+        this.tracker = new Crawler.UrlTracker(config.offHeap, config.bloomExpected);
+        this.dedup = (config.noDedup == false) ? new PageDedup(config.dedupDistance) : null;
+        this.templates = (config.noTemplates == false) ? new UrlTemplates(config.templateSample, config.templateMax) : null;
+    }
+
+   /**
+    * The crawl of the site at <code>seed</code>, as given at the command line or in a batch
+    * file, or null if no uri can be extracted from it
+    */
+    static Site of(String seed, Results results, CrawlConfig config, long deadline) {
+        String startPage = seed.trim();
+        if (startPage.isEmpty()) { return null; }
+        if (startPage.charAt(startPage.length() - 1) != '/') { startPage = startPage + '/'; }
+        Matcher m = uriOnlyP.matcher(startPage);
+        if (m.matches() == false) { return null; }
+        String uri = UrlCanon.canonical(m.group(1));
+        startPage = UrlCanon.canonical(startPage);
+        if (uri == null || startPage == null) { return null; }
+        return new Site(startPage, uri, results, config, deadline);
+    }
+
+   /**
+    * Is the canonical <code>url</code> within this website?
+    */
+    boolean contains(String url) {
+        return url != null && url.startsWith(uri) && url.length() > uri.length();
+    }
+
+   /**
+    * May <code>url</code> be crawled, as far as robots.txt says?
+    */
+    boolean allows(String url) {
+        Robots rules = robots;
+        return rules == null || rules.allows(url);
+    }
+
+   /**
+    * The host of this website, i.e. mysite.com for http://mysite.com:8080/
+    */
+    String host() {
+        int start = uri.indexOf("//") + 2;
+        int end = start;
+        while (end < uri.length() && uri.charAt(end) != '/' && uri.charAt(end) != ':') { end++; }
+        return uri.substring(start, end);
+    }
+
+   /**
+    * Print how the crawl of this site went, in one line
+    */
+    String summary() {
+        return uri + ": " + results.size() + " emails, " + linksCrawled.get() + " links crawled, " + tracker.summary()
+            + ((frontier.spent() == true) ? ", budget spent leaving " + frontier.size() + " links uncrawled" : "");
+    }
+
+} // end class Site
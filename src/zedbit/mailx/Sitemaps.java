@@ -0,0 +1,290 @@
+package zedbit.mailx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+
+
+/**
+ * <p>Sitemaps reads, before a site is crawled, its robots.txt and the sitemaps it points
+ * to, or /sitemap.xml if it points to none, so that the pages they list are queued at once
+ * rather than found hop by hop by rendering pages.</p>
+ *
+ * <p>Sitemaps are read as they stream in, with a StAX parser, so that one listing 50,000
+ * urls is never held whole. Sitemap indexes are followed to the sitemaps they list, and
+ * gzipped sitemaps are told by their first bytes. Sitemaps that are plain text, one url per
+ * line, are read as well. DTDs and external entities are never resolved.</p>
+ *
+ * <p>One Sitemaps, with its connections, is shared by all sites. Its requests go through
+ * politeness as those of the fast path do.</p>
+ *
+ * @author Manuel Mendez
+ */
+class Sitemaps {
+
+    // Most sitemaps read for one site, indexes included
+    static final int MAX_SITEMAPS = 256;
+
+    // Most of a robots.txt read, as RFC 9309 allows (bytes)
+    static final int MAX_ROBOTS = 500 * 1024;
+
+    // Tries at a robots.txt before its server is taken as unreachable
+    static final int ROBOTS_TRIES = 3;
+
+    // Redirects followed, for robots.txt and sitemaps alike
+    static final int MAX_REDIRECTS = 5;
+
+    private static final XMLInputFactory xmlFactory = XMLInputFactory.newDefaultFactory();
+    static {
+        xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final CloseableHttpClient httpClient;
+    private final Politeness politeness; // Null if none
+
+    // What was read
+    final AtomicInteger read = new AtomicInteger(); // Sitemaps read
+    final AtomicInteger failed = new AtomicInteger(); // Sitemaps that could not be
+    final AtomicInteger listed = new AtomicInteger(); // Urls of their sites they listed
+
+
+   /**
+    * Build a reader sending requests as <code>politeness</code>, if not null, allows
+    */
+    Sitemaps(Politeness politeness) {
+        this.politeness = politeness;
+
+        // Unlike the browsers, we follow a few redirects, as robots.txt often is one
+        RequestConfig config = RequestConfig.custom()
+            .setConnectTimeout(HttpFastPath.TIMEOUT)
+            .setConnectionRequestTimeout(HttpFastPath.TIMEOUT)
+            .setSocketTimeout(HttpFastPath.TIMEOUT)
+            .setRedirectsEnabled(true)
+            .setMaxRedirects(MAX_REDIRECTS)
+            .build();
+
+        httpClient = HttpClients.custom()
+            .setDefaultRequestConfig(config)
+            .setMaxConnTotal(CrawlConfig.SITES * 2)
+            .setUserAgent(BrowserVersion.FIREFOX_38.getUserAgent())
+            .build();
+    }
+
+   /**
+    * <p>The robots.txt of <code>site</code>. Without one, all is allowed. A server error
+    * or a failed read is tried again, up to <code>ROBOTS_TRIES</code> times with backoff;
+    * if the server still fails to answer, it is unreachable and nothing is allowed, as
+    * RFC 9309 asks. A host that cannot be connected to at all is crawled as if it had no
+    * robots.txt, so that its pages fail, and are retried, as pages of any host down do.</p>
+    */
+    Robots robots(Site site) {
+        String robotsUrl = site.uri + "robots.txt";
+        String failure = null; // Why the last try failed
+        boolean unconnected = false; // Did it fail to connect?
+        for (int attempt = 1; attempt <= ROBOTS_TRIES; attempt++) {
+            if (attempt > 1) {
+                long delay = Politeness.backoff(attempt - 1);
+                String why = failure;
+                Crawler.printlnV(() -> "robots.txt of " + site.uri + " " + why + ", trying again in " + delay + " mS");
+                try { Thread.sleep(delay); }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            try (CloseableHttpResponse response = Politeness.get(httpClient, robotsUrl, politeness)) {
+                int status = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+                if (status == 200 && entity != null) {
+                    try (InputStream body = new BoundedInputStream(entity.getContent(), MAX_ROBOTS)) {
+                        Robots robots = Robots.parse(IOUtils.toString(body, StandardCharsets.UTF_8));
+                        Crawler.printlnV(() -> "robots.txt of " + site.uri + ": " + robots.size() + " rules, "
+                            + robots.sitemaps.size() + " sitemaps");
+                        return robots;
+                    }
+                }
+                if (status >= 400 && status < 500) { return new Robots(); }
+                failure = "answered " + status;
+                unconnected = false;
+            } catch (ConnectException | ConnectTimeoutException | UnknownHostException e) {
+                failure = "cannot be connected to: " + e.toString();
+                unconnected = true;
+            } catch (IOException e) {
+                failure = "cannot be read: " + e.toString();
+                unconnected = false;
+            }
+        }
+        if (unconnected == true) {
+            System.err.println("robots.txt of " + site.uri + " " + failure + ", crawling as if it had none");
+            return new Robots();
+        }
+        System.err.println("robots.txt of " + site.uri + " " + failure + " after " + ROBOTS_TRIES
+            + " tries, crawling none of its pages but with --no-robots");
+        return Robots.DISALLOW_ALL;
+    } // end robots
+
+   /**
+    * Read the <code>sitemaps</code> of <code>site</code>, or its /sitemap.xml if none, and
+    * the sitemaps they list in turn. The urls of the site each lists are handed to
+    * <code>pages</code>, a sitemap at a time. Returns how many there were.
+    */
+    int read(Site site, List<String> sitemaps, Consumer<Set<String>> pages) {
+        Deque<String> toRead = new ArrayDeque<String>();
+        Set<String> seen = new HashSet<String>();
+        if (sitemaps.isEmpty()) { sitemaps = Collections.singletonList(site.uri + "sitemap.xml"); }
+        for (String sitemap : sitemaps) {
+            String url = UrlCanon.resolve(site.uri, sitemap);
+            if (url != null && seen.add(url)) { toRead.add(url); }
+        }
+
+        int found = 0;
+        int count = 0;
+        while (toRead.isEmpty() == false && count++ < MAX_SITEMAPS) {
+            String sitemapUrl = toRead.poll();
+            Set<String> urls = new LinkedHashSet<String>();
+            try (CloseableHttpResponse response = Politeness.get(httpClient, sitemapUrl, politeness)) {
+                int status = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+                if (status != 200 || entity == null) {
+                    failed.incrementAndGet();
+                    Crawler.printlnV(() -> "Sitemap " + sitemapUrl + " answered " + status);
+                    continue;
+                }
+                try (InputStream body = entity.getContent()) {
+                    parse(body, (loc) -> {
+                        String url = UrlCanon.canonical(loc);
+                        if (url != null && (site.contains(url) || url.equals(site.uri))) { urls.add(url); }
+                    }, (loc) -> {
+                        String url = UrlCanon.resolve(sitemapUrl, loc);
+                        if (url != null && seen.add(url)) { toRead.add(url); }
+                    });
+                }
+                read.incrementAndGet();
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                Crawler.printlnV(() -> "Sitemap " + sitemapUrl + " cannot be read! " + e.toString());
+            }
+            final int size = urls.size();
+            Crawler.printlnV(() -> "Sitemap " + sitemapUrl + ": " + size + " urls of the site");
+            found += size;
+            if (urls.isEmpty() == false) { pages.accept(urls); }
+        }
+        if (toRead.isEmpty() == false) {
+            System.err.println("Read " + MAX_SITEMAPS + " sitemaps of " + site.uri + ", leaving " + toRead.size() + " unread");
+        }
+        listed.addAndGet(found);
+        return found;
+    } // end read
+
+   /**
+    * Parse the sitemap, or sitemap index, streaming in from <code>body</code>, gzipped or
+    * not, and hand the &lt;loc&gt; of each &lt;url&gt; to <code>pages</code> and of each
+    * &lt;sitemap&gt; to <code>sitemaps</code>. A sitemap in plain text lists pages only.
+    */
+    static void parse(InputStream body, Consumer<String> pages, Consumer<String> sitemaps) throws IOException {
+        InputStream in = new BufferedInputStream(body);
+        in.mark(2);
+        if (in.read() == 0x1f && in.read() == 0x8b) {
+            in.reset();
+            in = new BufferedInputStream(new GZIPInputStream(in));
+        } else {
+            in.reset();
+        }
+
+        // XML starts with '<', past any byte order mark and whitespace
+        in.mark(1024);
+        int c = in.read();
+        for (int n = 1; n < 1024 && (c == 0xef || c == 0xbb || c == 0xbf || (c >= 0 && Character.isWhitespace(c))); n++) {
+            c = in.read();
+        }
+        in.reset();
+        if (c != '<') {
+            BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.trim().isEmpty() == false) { pages.accept(line.trim()); }
+            }
+            return;
+        }
+
+        XMLStreamReader xml = null;
+        try {
+            xml = xmlFactory.createXMLStreamReader(in);
+            String parent = null; // url or sitemap, whichever we are in
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xml.getLocalName();
+                    if (name.equals("url") || name.equals("sitemap")) {
+                        parent = name;
+                    } else if (name.equals("loc") && parent != null) {
+                        String loc = xml.getElementText().trim();
+                        if (parent.equals("url")) { pages.accept(loc); }
+                        else { sitemaps.accept(loc); }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals(parent)) {
+                    parent = null;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed sitemap: " + e.getMessage(), e);
+        } finally {
+            if (xml != null) {
+                try { xml.close(); }
+                catch (XMLStreamException e) {
+                    // Nothing left to read anyway
+                }
+            }
+        }
+    } // end parse
+
+   /**
+    * Print what was read in a nice fashion
+    */
+    String summary() {
+        return "Sitemaps: " + read.get() + " read, " + failed.get() + " could not be, " + listed.get() + " urls listed";
+    }
+
+   /**
+    * Release the connections
+    */
+    void close() {
+        try { httpClient.close(); }
+        catch (IOException e) {
+            // Nothing left to do with them anyway
+        }
+    }
+
+} // end class Sitemaps
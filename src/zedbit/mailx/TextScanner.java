@@ -0,0 +1,322 @@
+package zedbit.mailx;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+
+
+/**
+ * <p>TextScanner searches responses that are not html, i.e. text, vCards, JSON, XML and
+ * scripts, for emails, without building a DOM. The body is decoded as it streams in, a
+ * chunk at a time, and each chunk is handed to <code>EmailScanner</code> in place. The tail
+ * of a chunk that could still hold the start of an email is carried over to the next, so
+ * an email cut by a chunk boundary is found whole, and memory stays at one chunk however
+ * large the body.</p>
+ *
+ * <p>In JSON and scripts, string escapes are undone first, so that "\nsales@x.com" is found
+ * as sales@x.com, and an '@' written as a unicode escape is found at all. In XML, numeric
+ * character references are undone.</p>
+ *
+ * <p>Installed in a browser, it searches every such response the browser receives, the
+ * page itself and the XHRs its scripts send alike, once per url and site. Bodies are
+ * searched up to <code>MAX_BYTES</code>.</p>
+ *
+ * @author Manuel Mendez
+ */
+class TextScanner {
+
+    // What a response is, for searching it
+    enum Kind { TEXT, JSON, XML, SCRIPT }
+
+    // Chars decoded and searched at once
+    static final int CHUNK = 32 * 1024;
+
+    // The longest an email can be, quotes around its local part included (chars)
+    static final int MAX_EMAIL = EmailScanner.MAX_LOCAL + EmailScanner.MAX_DOMAIN + 3;
+
+    // Most of a body searched (bytes)
+    static final long MAX_BYTES = 64L * 1024 * 1024;
+
+    // Types of no use to us, however they are sent
+    static final Pattern binaryP = Pattern.compile("(image|audio|video|font)/.*|text/css|application/(pdf|zip|octet-stream).*");
+
+    // Extensions telling what a response is when its type does not
+    static final Pattern textUrlP = Pattern.compile(".*\\.(txt|vcf|vcard|csv|ics)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern jsonUrlP = Pattern.compile(".*\\.(json|jsonld|geojson)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern xmlUrlP = Pattern.compile(".*\\.(xml|rss|atom|kml)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern scriptUrlP = Pattern.compile(".*\\.(js|mjs)$", Pattern.CASE_INSENSITIVE);
+
+    // What was searched
+    final AtomicInteger responses = new AtomicInteger(); // Responses searched
+    final AtomicLong chars = new AtomicLong(); // Chars searched in them
+    final AtomicInteger found = new AtomicInteger(); // Emails found in them, repeats included
+
+
+   /**
+    * What the response at <code>url</code>, of type <code>mimeType</code>, is to be searched
+    * as, or null if it is html, or not text at all. Either may be null if not known.
+    */
+    static Kind kind(String mimeType, String url) {
+        String type = (mimeType != null) ? mimeType.toLowerCase(Locale.ROOT).trim() : "";
+        if (type.equals("text/html") || type.equals("application/xhtml+xml") || binaryP.matcher(type).matches()) {
+            // An unknown binary type may still be text by its url
+            if (type.startsWith("application/octet-stream") == false) { return null; }
+            type = "";
+        }
+        if (type.contains("json")) { return Kind.JSON; }
+        if (type.contains("javascript") || type.contains("ecmascript")) { return Kind.SCRIPT; }
+        if (type.endsWith("/xml") || type.endsWith("+xml")) { return Kind.XML; }
+        if (type.startsWith("text/")) { return Kind.TEXT; }
+
+        // Not said, or not plainly text: go by the extension, if any
+        String path = (url != null) ? path(url) : "";
+        if (jsonUrlP.matcher(path).matches()) { return Kind.JSON; }
+        if (scriptUrlP.matcher(path).matches()) { return Kind.SCRIPT; }
+        if (xmlUrlP.matcher(path).matches()) { return Kind.XML; }
+        if (textUrlP.matcher(path).matches()) { return Kind.TEXT; }
+        return null;
+    } // end kind
+
+   /**
+    * Search the <code>body</code>, of <code>kind</code>, in <code>charset</code>, or UTF-8
+    * if null, handing each email found to <code>emails</code>. Returns how many there were.
+    */
+    int scan(InputStream body, Charset charset, Kind kind, Consumer<String> emails) throws IOException {
+        Reader in = new InputStreamReader(new BoundedInputStream(body, MAX_BYTES), (charset != null) ? charset : StandardCharsets.UTF_8);
+        if (kind == Kind.JSON || kind == Kind.SCRIPT) { in = new Unescaping(in, false); }
+        else if (kind == Kind.XML) { in = new Unescaping(in, true); }
+
+        char[] buffer = new char[CHUNK + MAX_EMAIL];
+        List<int[]> ranges = new ArrayList<int[]>();
+        int count = 0;
+        int length = 0; // Chars in the buffer, those carried over included
+        boolean eof = false;
+        while (eof == false) {
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) { eof = true; }
+            else {
+                length += read;
+                chars.addAndGet(read);
+            }
+            if (eof == false && length < buffer.length) { continue; }
+
+            // Emails starting before safe lie whole in the buffer, the others wait for more
+            int safe = (eof == true) ? length : length - MAX_EMAIL;
+            ranges.clear();
+            CharBuffer text = CharBuffer.wrap(buffer, 0, length);
+            EmailScanner.scan(text, 0, length, (t, start, end) -> { ranges.add(new int[] { start, end }); });
+            int carry = safe;
+            for (int[] range : ranges) {
+                if (range[0] >= safe) { break; }
+                emails.accept(text.subSequence(range[0], range[1]).toString());
+                count++;
+                carry = Math.max(carry, range[1]);
+            }
+            System.arraycopy(buffer, carry, buffer, 0, length - carry);
+            length -= carry;
+        }
+        responses.incrementAndGet();
+        found.addAndGet(count);
+        return count;
+    } // end scan
+
+   /**
+    * Install the scanner in <code>webClient</code>, crawling the website on <code>host</code>:
+    * each response it receives that is to be searched, and whose url is not yet in
+    * <code>scanned</code>, is searched and the emails found handed to <code>report</code>,
+    * with the url they were found at. Scripts of other hosts, libraries most often, are not.
+    */
+    void install(WebClient webClient, String host, Set<String> scanned, BiConsumer<String, String> report) {
+        new ScanningWebConnection(webClient, host, scanned, report);
+    }
+
+   /**
+    * Print what was searched in a nice fashion
+    */
+    String summary() {
+        return "Text: " + responses.get() + " responses searched without a DOM, " + chars.get() / 1024 + " K chars, "
+            + found.get() + " emails found";
+    }
+
+   /**
+    * The path of <code>url</code>, without its query
+    */
+    private static String path(String url) {
+        int query = url.indexOf('?');
+        return (query < 0) ? url : url.substring(0, query);
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * <p>ScanningWebConnection searches the responses a browser receives that TextScanner
+    * knows how to search, leaving them as they are for the browser.</p>
+    */
+    private class ScanningWebConnection extends WebConnectionWrapper {
+
+        private final String host; // Of the website crawled
+        private final Set<String> scanned;
+        private final BiConsumer<String, String> report;
+
+        ScanningWebConnection(WebClient webClient, String host, Set<String> scanned, BiConsumer<String, String> report) {
+            super(webClient);
+            this.host = host;
+            this.scanned = scanned;
+            this.report = report;
+        }
+
+        @Override
+        public WebResponse getResponse(WebRequest request) throws IOException {
+            WebResponse response = super.getResponse(request);
+            if (response.getStatusCode() != 200) { return response; }
+            String url = request.getUrl().toString();
+            Kind kind = kind(response.getContentType(), url);
+            if (kind == null || (kind == Kind.SCRIPT && request.getUrl().getHost().equalsIgnoreCase(host) == false)) { return response; }
+            if (scanned.add(url) == false) { return response; }
+
+            String charset = response.getContentCharsetOrNull();
+            try (InputStream body = response.getContentAsStream()) {
+                int n = scan(body, (charset != null) ? Charset.forName(charset) : null, kind, (email) -> report.accept(email, url));
+                Crawler.printlnT(() -> Crawler.MARGIN + "Searched " + url + " as " + kind + ", " + n + " emails");
+            } catch (IOException | RuntimeException e) {
+                Crawler.printlnV(() -> Crawler.MARGIN + "Could not search " + url + ": " + e.toString());
+            }
+            return response;
+        } // end getResponse
+
+    } // end class ScanningWebConnection
+
+   /**
+    * <p>Unescaping undoes, as chars are read, the escapes of JSON and script strings, i.e.
+    * \n, \/ and unicode escapes, or the numeric character references of XML, i.e. &amp;#64;.
+    * Control escapes become a space, so that they part what they parted. Anything else is
+    * left as is.</p>
+    *
+    * <p>Chars are read from the underlying reader a chunk at a time, keeping enough of them
+    * ahead to see a whole escape.</p>
+    */
+    private static class Unescaping extends FilterReader {
+
+        // Longest escape or reference we undo, &#x10ffff; (chars)
+        static final int LOOKAHEAD = 10;
+
+        private final boolean references; // XML references, rather than backslash escapes
+        private final char[] raw = new char[8192];
+        private int start, end; // The raw chars read, but not yet handed out
+        private boolean eof;
+
+        Unescaping(Reader in, boolean references) {
+            super(in);
+            this.references = references;
+        }
+
+        @Override
+        public int read() throws IOException {
+            char[] one = new char[1];
+            return (read(one, 0, 1) < 0) ? -1 : one[0];
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int n = 0;
+            while (n < length) {
+                while (end - start < LOOKAHEAD && eof == false) { fill(); }
+                if (start == end) { break; }
+                char c = raw[start];
+                if (references == false && c == '\\') { c = escape(); }
+                else if (references == true && c == '&') { c = reference(); }
+                else { start++; }
+                buffer[offset + n++] = c;
+            }
+            return (n == 0 && length > 0) ? -1 : n;
+        } // end read
+
+        private void fill() throws IOException {
+            System.arraycopy(raw, start, raw, 0, end - start);
+            end -= start;
+            start = 0;
+            int read = in.read(raw, end, raw.length - end);
+            if (read < 0) { eof = true; }
+            else { end += read; }
+        }
+
+        private char escape() {
+            if (start + 1 == end) {
+                start++;
+                return '\\';
+            }
+            char c = raw[start + 1];
+            switch (c) {
+                case 'n': case 'r': case 't': case 'b': case 'f':
+                    start += 2;
+                    return ' ';
+                case 'u':
+                    if (start + 6 <= end) {
+                        int code = 0;
+                        for (int h = start + 2; h < start + 6 && code >= 0; h++) {
+                            int digit = Character.digit(raw[h], 16);
+                            code = (digit < 0) ? -1 : (code << 4) | digit;
+                        }
+                        if (code >= 0) {
+                            start += 6;
+                            return (char) code;
+                        }
+                    }
+                    start++;
+                    return '\\';
+                default:
+                    // \" \\ \/ and the like stand for the char escaped
+                    start += 2;
+                    return c;
+            }
+        } // end escape
+
+        private char reference() {
+            int semicolon = -1;
+            for (int i = start + 2; i < end && i <= start + LOOKAHEAD - 1; i++) {
+                if (raw[i] == ';') {
+                    semicolon = i;
+                    break;
+                }
+            }
+            if (semicolon > start + 2 && raw[start + 1] == '#') {
+                boolean hex = (raw[start + 2] == 'x' || raw[start + 2] == 'X');
+                try {
+                    int code = Integer.parseInt(new String(raw, start + (hex ? 3 : 2), semicolon - start - (hex ? 3 : 2)), hex ? 16 : 10);
+                    if (code > 0 && code < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                        start = semicolon + 1;
+                        return (char) code;
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a reference after all
+                }
+            }
+            start++;
+            return '&';
+        } // end reference
+
+    } // end class Unescaping
+
+} // end class TextScanner
@@ -0,0 +1,162 @@
+package zedbit.mailx;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+
+/**
+ * <p>UrlCanon turns the many spellings of an url into one, so that the url tracker sees a
+ * resource once however its pages link to it. Links are resolved against the url of their
+ * page, or its &lt;base&gt;, then made canonical: only the scheme and host are lower cased,
+ * default ports, fragments and tracking parameters are dropped, the remaining parameters
+ * are sorted, and dot segments and repeated slashes are removed from the path.</p>
+ *
+ * <p>The trailing slash of a path is kept, as servers tell /a from /a/ (the first is most
+ * often a redirect to the second), but an empty path is always /.</p>
+ *
+ * <p>Only http and https urls have a canonical form; mailto:, javascript: and the like
+ * have none.</p>
+ *
+ * @author Manuel Mendez
+ */
+class UrlCanon {
+
+    // Query parameters that only tell where a visitor came from
+    static final Pattern trackingP = Pattern.compile(
+        "(utm_[a-z]+|gclid|dclid|fbclid|msclkid|yclid|igshid|mc_cid|mc_eid|_ga|_gl|_hsenc|_hsmi)", Pattern.CASE_INSENSITIVE);
+
+
+   /**
+    * The canonical form of <code>href</code> as found in a page at <code>base</code>, or
+    * null if it is not an http(s) url or cannot be made sense of
+    */
+    static String resolve(String base, String href) {
+        if (href == null) { return null; }
+        href = href.trim();
+        try {
+            URL context = new URL(base);
+            if (href.startsWith("?")) {
+                // A new query for the same page, which URL would resolve against its directory
+                return canonical(new URL(context.getProtocol(), context.getHost(), context.getPort(), context.getPath() + href));
+            }
+            return canonical(new URL(context, href));
+        }
+        catch (MalformedURLException e) { return null; }
+    }
+
+   /**
+    * The url of the route <code>target</code> of a page at <code>base</code>: as for
+    * <code>resolve</code>, but a fragment holding a route, i.e. #/about or #!/about, is kept
+    * as the page it shows differs from the page without it
+    */
+    static String route(String base, String target) {
+        String url = resolve(base, target);
+        if (url == null) { return null; }
+        int hash = target.indexOf('#');
+        if (hash >= 0 && (target.startsWith("#/", hash) || target.startsWith("#!", hash))) {
+            return url + target.substring(hash).trim();
+        }
+        return url;
+    }
+
+   /**
+    * The canonical form of the absolute <code>url</code>, or null as for <code>resolve</code>
+    */
+    static String canonical(String url) {
+        try { return canonical(new URL(url)); }
+        catch (MalformedURLException e) { return null; }
+    }
+
+   /**
+    * The canonical form of <code>url</code>, or null as for <code>resolve</code>
+    */
+    static String canonical(URL url) {
+        String scheme = url.getProtocol().toLowerCase(Locale.ROOT);
+        if (scheme.equals("http") == false && scheme.equals("https") == false) { return null; }
+        String host = url.getHost().toLowerCase(Locale.ROOT);
+        if (host.isEmpty()) { return null; }
+
+        StringBuilder canon = new StringBuilder(scheme.length() + host.length() + 64);
+        canon.append(scheme).append("://").append(host);
+        int port = url.getPort();
+        if (port != -1 && port != url.getDefaultPort()) { canon.append(':').append(port); }
+        path(url.getPath(), canon);
+        query(url.getQuery(), canon);
+        return canon.toString();
+    } // end canonical
+
+   /**
+    * Append <code>path</code> without dot segments nor repeated slashes, / if empty
+    */
+    private static void path(String path, StringBuilder canon) {
+        int root = canon.length();
+        canon.append('/');
+        int i = 0;
+        while (i < path.length()) {
+            int end = path.indexOf('/', i);
+            if (end < 0) { end = path.length(); }
+            boolean last = (end == path.length());
+            if (end == i || (end - i == 1 && path.charAt(i) == '.')) {
+                // Empty or "." segment: nothing
+            } else if (end - i == 2 && path.regionMatches(i, "..", 0, 2)) {
+                // Drop the previous segment, if any
+                int previous = canon.lastIndexOf("/", canon.length() - 2);
+                canon.setLength(Math.max(previous, root) + 1);
+            } else {
+                percents(path, i, end, canon);
+                if (last == false) { canon.append('/'); }
+            }
+            i = end + 1;
+        }
+    } // end path
+
+   /**
+    * Append the parameters of <code>query</code> but tracking ones, sorted by name
+    */
+    private static void query(String query, StringBuilder canon) {
+        if (query == null || query.isEmpty()) { return; }
+        List<String> params = new ArrayList<String>();
+        for (String param : query.split("&")) {
+            if (param.isEmpty()) { continue; }
+            if (trackingP.matcher(name(param)).matches()) { continue; }
+            params.add(param);
+        }
+        if (params.isEmpty()) { return; }
+
+        // A stable sort by name, parameters given twice keep their order
+        params.sort((a, b) -> name(a).compareTo(name(b)));
+        char separator = '?';
+        for (String param : params) {
+            canon.append(separator);
+            percents(param, 0, param.length(), canon);
+            separator = '&';
+        }
+    } // end query
+
+   /**
+    * The name of a query parameter, up to its '='
+    */
+    private static String name(String param) {
+        int equals = param.indexOf('=');
+        return (equals < 0) ? param : param.substring(0, equals);
+    }
+
+   /**
+    * Append <code>s</code> from <code>start</code> to <code>end</code>, with the hex digits
+    * of its percent escapes in upper case
+    */
+    private static void percents(String s, int start, int end, StringBuilder canon) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            canon.append(c);
+            if (c == '%' && i + 2 < end) {
+                canon.append(Character.toUpperCase(s.charAt(++i))).append(Character.toUpperCase(s.charAt(++i)));
+            }
+        }
+    }
+
+} // end class UrlCanon
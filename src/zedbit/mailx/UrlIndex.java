@@ -0,0 +1,311 @@
+package zedbit.mailx;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * <p>UrlIndex is a compact, concurrent index of the urls a crawl has seen. Instead of
+ * the urls themselves it stores a fingerprint of each, the 61 high bits of a 64-bit hash,
+ * in an open-addressing table of primitive longs that can live on the heap or off-heap, in
+ * a direct buffer.</p>
+ *
+ * <p>Each url is in one of the states <code>SCHEDULED</code>, <code>VISITED</code> or
+ * <code>ERRORED</code>, which are ordered: a url only ever moves up, via
+ * <code>advance()</code>. The state is kept in the two low bits of the table slot, next
+ * to the fingerprint, so that moving a url is a single compare-and-set, and inserting a
+ * new url is a compare-and-set on an empty slot. No lock is taken for either.</p>
+ *
+ * <p>Growing the table, which happens a logarithmic number of times, first freezes every
+ * slot of the old table, setting the third low bit with a compare-and-set, so that no
+ * writer can change it any more, then copies the slots to a table twice as large. A reader
+ * or writer meeting a frozen slot waits for the new table to be published, and starts over
+ * in it. Writers racing the grower either changed a slot before it was frozen, and the
+ * change is copied, or see it frozen and retry.</p>
+ *
+ * <p>For very large crawls an optional Bloom filter can be put in front of lookups, so
+ * that most urls never seen before are answered without probing the table.</p>
+ *
+ * @author Manuel Mendez
+ */
+class UrlIndex {
+
+    // The states of an url, in the order an url may go through them
+    static final int ABSENT = 0;
+    static final int SCHEDULED = 1;
+    static final int VISITED = 2;
+    static final int ERRORED = 3;
+
+    // The low bits of a slot hold the state and whether it is frozen, the others the
+    // fingerprint. 0 is an empty slot, FROZEN alone a frozen empty one
+    private static final long STATE_MASK = 3L;
+    private static final long FROZEN = 4L;
+    private static final long KEY_MASK = ~(STATE_MASK | FROZEN);
+
+    // Grow the table when more than 3/4 of the slots are used
+    private static final int LOAD_NUMERATOR = 3;
+    private static final int LOAD_DENOMINATOR = 4;
+
+    private final boolean offHeap; // Are the slots in a direct buffer?
+    private final BloomFilter bloom; // Optional pre-check for lookups, may be null
+    private final AtomicInteger size = new AtomicInteger(); // Slots in use
+    private volatile Slots slots; // The table itself
+
+
+   /**
+    * Build an index with room for <code>capacity</code> urls before its first growth,
+    * off-heap if so asked. A Bloom filter sized for <code>bloomExpected</code> urls is
+    * placed in front of lookups, unless bloomExpected is 0.
+    */
+    UrlIndex(int capacity, boolean offHeap, long bloomExpected) {
+        this.offHeap = offHeap;
+        this.bloom = (bloomExpected > 0) ? new BloomFilter(bloomExpected) : null;
+        int slotCount = Integer.highestOneBit(Math.max(16, capacity) * LOAD_DENOMINATOR / LOAD_NUMERATOR) << 1;
+        this.slots = newSlots(slotCount);
+    }
+
+   /**
+    * Returns the state of <code>url</code>, <code>ABSENT</code> if never seen.
+    */
+    int state(String url) {
+        final long key = key(url);
+        if (bloom != null && bloom.mightContain(key) == false) { return ABSENT; }
+
+        while (true) {
+            Slots table = slots;
+            int state = probe(table, key);
+            if (state >= 0) { return state; }
+            awaitGrowth(table);
+        }
+    }
+
+   /**
+    * Move <code>url</code> up to state <code>to</code>, inserting it if absent. Returns
+    * true if this call moved it, false if the url already was in state to, or beyond.
+    * When several threads race to move the same url, exactly one of them gets true.
+    */
+    boolean advance(String url, int to) {
+        final long key = key(url);
+        if (bloom != null) { bloom.add(key); }
+
+        while (true) {
+            Slots table = slots;
+            int mask = table.length() - 1;
+            int i = (int) (key ^ (key >>> 32)) & mask;
+            while (true) {
+                long current = table.get(i);
+                if ((current & FROZEN) != 0) { break; } // Being grown, start over in the new table
+                if (current == 0) {
+                    // An empty slot: the url is new, claim the slot
+                    if (table.compareAndSet(i, 0, key | to) == false) { continue; }
+                    if (size.incrementAndGet() * LOAD_DENOMINATOR > table.length() * LOAD_NUMERATOR) { grow(table); }
+                    return true;
+                }
+                if ((current & KEY_MASK) == key) {
+                    // Our url, move it only up
+                    if ((current & STATE_MASK) >= to) { return false; }
+                    if (table.compareAndSet(i, current, key | to) == false) { continue; }
+                    return true;
+                }
+                i = (i + 1) & mask;
+            }
+            awaitGrowth(table);
+        }
+    } // end advance
+
+   /**
+    * How many distinct urls are in the index
+    */
+    int size() {
+        return size.get();
+    }
+
+   /**
+    * Describe the memory held by the index, for summaries
+    */
+    String footprint() {
+        long bytes = (long) slots.length() * Long.BYTES;
+        return (bytes / 1024) + " KB in " + slots.length() + " slots" + (offHeap ? " off-heap" : "")
+            + (bloom != null ? ", bloom filter " + (bloom.bytes() / 1024) + " KB" : "");
+    }
+
+   /**
+    * <p>fingerprint hashes an url into 64 bits, without allocating. Urls come in canonical,
+    * as made by <code>UrlCanon</code>, so their case is kept: paths and queries may tell
+    * resources apart by it.</p>
+    *
+    * <p>FNV-1a is run over the chars, then its weak low bits are spread by the
+    * MurmurHash3 finalizer, as both the table and the Bloom filter index by low bits.</p>
+    */
+    static long fingerprint(CharSequence url) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            h ^= url.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    } // end fingerprint
+
+   /**
+    * The slot value of url with an empty state, never 0 which marks empty slots
+    */
+    private static long key(String url) {
+        long key = fingerprint(url) & KEY_MASK;
+        return (key == 0) ? (KEY_MASK & -KEY_MASK) : key;
+    }
+
+   /**
+    * Look for key in table, returning its state, or -1 if a frozen slot was met
+    */
+    private static int probe(Slots table, long key) {
+        int mask = table.length() - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        while (true) {
+            long current = table.get(i);
+            if ((current & FROZEN) != 0) { return -1; }
+            if (current == 0) { return ABSENT; }
+            if ((current & KEY_MASK) == key) { return (int) (current & STATE_MASK); }
+            i = (i + 1) & mask;
+        }
+    }
+
+   /**
+    * Wait until a table replacing <code>table</code> is published
+    */
+    private void awaitGrowth(Slots table) {
+        while (slots == table) { Thread.yield(); }
+    }
+
+   /**
+    * Double <code>old</code>, unless another writer did already: freeze each of its slots,
+    * then copy them to the new table and publish it
+    */
+    private synchronized void grow(Slots old) {
+        if (slots != old) { return; } // Someone did
+        Slots table = newSlots(old.length() << 1);
+        int mask = table.length() - 1;
+        for (int j = 0; j < old.length(); j++) {
+            long current;
+            do { current = old.get(j); } while (old.compareAndSet(j, current, current | FROZEN) == false);
+            if (current == 0) { continue; }
+            long key = current & KEY_MASK;
+            int i = (int) (key ^ (key >>> 32)) & mask;
+            while (table.get(i) != 0) { i = (i + 1) & mask; }
+            table.set(i, current);
+        }
+        slots = table;
+    } // end grow
+
+    private Slots newSlots(int length) {
+        return offHeap ? new DirectSlots(length) : new HeapSlots(length);
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * Slots is the table of longs, accessed atomically, on or off the heap
+    */
+    private abstract static class Slots {
+        abstract int length();
+        abstract long get(int i);
+        abstract void set(int i, long value);
+        abstract boolean compareAndSet(int i, long expected, long value);
+    }
+
+   /**
+    * Slots in a long array on the heap
+    */
+    private static final class HeapSlots extends Slots {
+        private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(long[].class);
+        private final long[] table;
+
+        HeapSlots(int length) { table = new long[length]; }
+
+        int length() { return table.length; }
+        long get(int i) { return (long) SLOT.getVolatile(table, i); }
+        void set(int i, long value) { SLOT.setVolatile(table, i, value); }
+        boolean compareAndSet(int i, long expected, long value) {
+            return SLOT.compareAndSet(table, i, expected, value);
+        }
+    }
+
+   /**
+    * Slots in a direct buffer, off the heap and out of the way of the garbage collector
+    */
+    private static final class DirectSlots extends Slots {
+        private static final VarHandle SLOT = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+        private final ByteBuffer table;
+        private final int length;
+
+        DirectSlots(int length) {
+            this.length = length;
+            table = ByteBuffer.allocateDirect(length * Long.BYTES).order(ByteOrder.nativeOrder());
+        }
+
+        int length() { return length; }
+        long get(int i) { return (long) SLOT.getVolatile(table, i * Long.BYTES); }
+        void set(int i, long value) { SLOT.setVolatile(table, i * Long.BYTES, value); }
+        boolean compareAndSet(int i, long expected, long value) {
+            return SLOT.compareAndSet(table, i * Long.BYTES, expected, value);
+        }
+    }
+
+   /**
+    * <p>BloomFilter answers whether a fingerprint might have been added, with a 1% rate
+    * of false positives at the expected number of urls, and no false negatives.</p>
+    *
+    * <p>Bits are set before the table slot is claimed, so a reader that finds a bit clear
+    * is right that the url was not in the table yet.</p>
+    */
+    private static final class BloomFilter {
+        private static final int HASHES = 7; // Optimal for a 1% false positive rate
+        private final AtomicLongArray bits;
+        private final long bitCount;
+
+        BloomFilter(long expected) {
+            // m = -n ln(p) / ln(2)^2, about 9.6 bits per url for p = 1%
+            long words = Math.max(1, (long) Math.ceil(expected * 9.6 / Long.SIZE));
+            bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, words));
+            bitCount = (long) bits.length() * Long.SIZE;
+        }
+
+        void add(long key) {
+            int h1 = (int) key;
+            int h2 = (int) (key >>> 32);
+            for (int k = 1; k <= HASHES; k++) {
+                long bit = ((h1 + (long) k * h2) & Long.MAX_VALUE) % bitCount;
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current = bits.get(word);
+                while ((current & mask) == 0 && bits.compareAndSet(word, current, current | mask) == false) {
+                    current = bits.get(word);
+                }
+            }
+        }
+
+        boolean mightContain(long key) {
+            int h1 = (int) key;
+            int h2 = (int) (key >>> 32);
+            for (int k = 1; k <= HASHES; k++) {
+                long bit = ((h1 + (long) k * h2) & Long.MAX_VALUE) % bitCount;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) { return false; }
+            }
+            return true;
+        }
+
+        long bytes() {
+            return (long) bits.length() * Long.BYTES;
+        }
+    } // end class BloomFilter
+
+} // end class UrlIndex
@@ -0,0 +1,201 @@
+package zedbit.mailx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+
+/**
+ * <p>UrlTemplates learns the templates the urls of a site are made from, so that Mailx stops
+ * crawling the endless pages a calendar, a paginated listing, a faceted search or an
+ * /item/12345 scheme generate once they stop yielding emails.</p>
+ *
+ * <p>The template of an url is its path and route, with every run of digits made {n},
+ * every segment that looks like an id, hex or a uuid, made {id}, and every slug mixing
+ * words and digits, as 2024-05-my-post, made {slug}, and its query keys without their
+ * values: /events/2024/05?day=3&amp;view=week is /events/{n}/{n}?day&amp;view. For each
+ * template the pages crawled and searched, and the new emails found in them, are counted.
+ * Once <code>sample</code> pages of a template in a row yielded no new email, or
+ * <code>max</code> pages of it were crawled if not 0, the template is closed: its links
+ * are no longer queued, nor crawled if queued already, and are recorded as skipped.</p>
+ *
+ * <p>A template without digits, ids nor query matches one url only, and is crawled once,
+ * so it is not kept at all: the templates held grow with the kinds of pages of a site, not
+ * with its pages.</p>
+ *
+ * @author Manuel Mendez
+ */
+class UrlTemplates {
+
+    // Pages of a template in a row without a new email before it is closed
+    static final int SAMPLE = 30;
+
+    // A path segment that is an id rather than a word: hex of 12 or more, or a uuid
+    static final Pattern idP = Pattern.compile("[0-9a-fA-F]{12,}|[0-9a-fA-F]{8}(-[0-9a-fA-F]{4}){3}-[0-9a-fA-F]{12}");
+
+    // A run of digits
+    static final Pattern digitsP = Pattern.compile("[0-9]+");
+
+    // A slug: words and digits, with at least one of each, joined by dashes or underscores,
+    // and maybe an extension, i.e. 2024-05-my-post.html
+    static final Pattern slugP = Pattern.compile("(?=.*[0-9])(?=.*[^\\W\\d_])[\\w%.-]*[-_][\\w%.-]*", Pattern.UNICODE_CHARACTER_CLASS);
+
+    private final int sample; // Pages in a row without an email that close a template
+    private final int max; // Most pages crawled of a template, 0 for no limit
+    private final Map<String, Template> templates = new ConcurrentHashMap<String, Template>();
+
+    // What was not crawled
+    final AtomicInteger skipped = new AtomicInteger(); // Links of closed templates
+
+    // Templates of the sites tallied into this one, learned and closed
+    private final AtomicInteger talliedLearned = new AtomicInteger();
+    private final AtomicInteger talliedClosed = new AtomicInteger();
+
+
+   /**
+    * Build a learner closing templates after <code>sample</code> pages without a new email,
+    * or <code>max</code> pages if not 0
+    */
+    UrlTemplates(int sample, int max) {
+        this.sample = sample;
+        this.max = max;
+    }
+
+   /**
+    * The template of the canonical <code>url</code>
+    */
+    static String template(String url) {
+        int start = url.indexOf('/', url.indexOf("//") + 2);
+        if (start < 0) { return "/"; }
+        int hash = url.indexOf('#', start);
+        int query = url.indexOf('?', start);
+        if (hash >= 0 && query > hash) { query = -1; } // A ? in the route is part of it
+        int pathEnd = (query >= 0) ? query : (hash >= 0) ? hash : url.length();
+
+        StringBuilder template = new StringBuilder(url.length());
+        segments(url.substring(start, pathEnd), template);
+        if (query >= 0) {
+            // Keys only, already sorted by UrlCanon
+            String[] pairs = url.substring(query + 1, (hash >= 0) ? hash : url.length()).split("&");
+            char separator = '?';
+            for (String pair : pairs) {
+                if (pair.isEmpty()) { continue; }
+                int equals = pair.indexOf('=');
+                template.append(separator).append((equals < 0) ? pair : pair.substring(0, equals));
+                separator = '&';
+            }
+        }
+        if (hash >= 0) {
+            template.append('#');
+            segments(url.substring(hash + 1), template);
+        }
+        return template.toString();
+    } // end template
+
+   /**
+    * Append the slash separated <code>path</code> to <code>template</code>, its ids, slugs
+    * and digits abstracted
+    */
+    private static void segments(String path, StringBuilder template) {
+        String[] parts = path.split("/", -1);
+        for (int p = 0; p < parts.length; p++) {
+            if (p > 0) { template.append('/'); }
+            String part = parts[p];
+            if (idP.matcher(part).matches() && digitsP.matcher(part).find()) { template.append("{id}"); }
+            else if (slugP.matcher(part).matches()) { template.append("{slug}"); }
+            else { template.append(digitsP.matcher(part).replaceAll("{n}")); }
+        }
+    }
+
+   /**
+    * May <code>url</code> still be crawled, or is its template closed?
+    */
+    boolean allows(String url) {
+        String template = template(url);
+        if (variable(template) == false) { return true; }
+        Template t = templates.get(template);
+        if (t == null || t.closed == false) { return true; }
+        skipped.incrementAndGet();
+        return false;
+    }
+
+   /**
+    * The page at <code>url</code> was crawled and searched, yielding <code>found</code>
+    * new emails. Pages skipped, failed or duplicate are not to be counted.
+    */
+    void crawled(String url, int found) {
+        String template = template(url);
+        if (variable(template) == false) { return; }
+        Template t = templates.computeIfAbsent(template, (k) -> new Template());
+        boolean closing;
+        int pages, emails;
+        synchronized (t) {
+            // Counted in one step, so that pages crawled at once by other workers do not
+            // break the run of pages without an email
+            pages = ++t.pages;
+            t.emails += found;
+            emails = t.emails;
+            t.dry = (found > 0) ? 0 : t.dry + 1;
+            closing = t.closed == false && (t.dry >= sample || (max != 0 && pages >= max));
+            if (closing == true) { t.closed = true; }
+        }
+        if (closing == true) {
+            Crawler.printlnV(() -> "Url template " + template + " closed after " + pages + " pages, " + emails + " emails");
+        }
+    } // end crawled
+
+   /**
+    * Does <code>template</code> match more than one url?
+    */
+    private static boolean variable(String template) {
+        return template.indexOf('{') >= 0 || template.indexOf('?') >= 0;
+    }
+
+   /**
+    * The templates closed, each with its pages and emails
+    */
+    List<String> closed() {
+        List<String> closed = new ArrayList<String>();
+        templates.forEach((template, t) -> {
+            synchronized (t) {
+                if (t.closed == true) { closed.add(template + " (" + t.pages + " pages, " + t.emails + " emails)"); }
+            }
+        });
+        return closed;
+    }
+
+   /**
+    * Add what <code>other</code> learned, i.e. a site of a batch once it is crawled, to the
+    * counts of this one
+    */
+    void tally(UrlTemplates other) {
+        talliedLearned.addAndGet(other.templates.size() + other.talliedLearned.get());
+        talliedClosed.addAndGet(other.closed().size() + other.talliedClosed.get());
+        skipped.addAndGet(other.skipped.get());
+    }
+
+   /**
+    * Print what was learned in a nice fashion
+    */
+    String summary() {
+        return "Url templates: " + (templates.size() + talliedLearned.get()) + " learned, "
+            + (closed().size() + talliedClosed.get()) + " closed, " + skipped.get() + " links of them not crawled";
+    }
+
+
+    // Helper static nested classes //
+
+   /**
+    * Template counts what the pages of one template yielded, updated while holding it
+    */
+    private static class Template {
+        int pages; // Crawled
+        int emails; // New ones found in them
+        int dry; // Pages in a row without a new email
+        volatile boolean closed;
+    } // end class Template
+
+} // end class UrlTemplates